@@ -38,6 +38,7 @@ import com.floragunn.searchguard.configuration.ConfigurationModule;
 import com.floragunn.searchguard.configuration.SearchGuardIndexSearcherWrapperModule;
 import com.floragunn.searchguard.filter.SearchGuardFilter;
 import com.floragunn.searchguard.http.SearchGuardHttpServerTransport;
+import com.floragunn.searchguard.rest.SearchGuardCacheStatsAction;
 import com.floragunn.searchguard.rest.SearchGuardInfoAction;
 import com.floragunn.searchguard.ssl.util.SSLConfigConstants;
 import com.floragunn.searchguard.support.ReflectionHelper;
@@ -120,6 +121,7 @@ public final class SearchGuardPlugin extends Plugin {
 	public void onModule(final RestModule module) {
         if (!client && !tribeNodeClient) {
             module.addRestAction(SearchGuardInfoAction.class);
+            module.addRestAction(SearchGuardCacheStatsAction.class);
             if(ReflectionHelper.canLoad("com.floragunn.dlic.rest.api.SearchGuardRestApiActions")) {
                 try {
                 	ReflectionHelper
@@ -54,17 +54,29 @@ public class ConfigUpdateResponse extends BaseNodesResponse<ConfigUpdateResponse
         }
     }
 
+    /**
+     * The response of one node.
+     * <p>
+     * Contains the changed config types since this version, so nodes and sgadmin must run the same search guard version
+     * (which is required anyway) to exchange config update responses.
+     */
     public static class Node extends BaseNodeResponse {
         
         private String[] updatedConfigTypes;
+        private String[] changedConfigTypes;
         private String message;
         
         Node() {
         }
 
         Node(final DiscoveryNode node, String[] updatedConfigTypes, String message) {
+            this(node, updatedConfigTypes, updatedConfigTypes, message);
+        }
+        
+        Node(final DiscoveryNode node, String[] updatedConfigTypes, String[] changedConfigTypes, String message) {
             super(node);
             this.updatedConfigTypes = updatedConfigTypes == null?null:Arrays.copyOf(updatedConfigTypes, updatedConfigTypes.length);
+            this.changedConfigTypes = changedConfigTypes == null?null:Arrays.copyOf(changedConfigTypes, changedConfigTypes.length);
             this.message = message;
         }
         
@@ -72,6 +84,7 @@ public class ConfigUpdateResponse extends BaseNodesResponse<ConfigUpdateResponse
         public void readFrom(StreamInput in) throws IOException {
             super.readFrom(in);
             updatedConfigTypes = in.readStringArray();
+            changedConfigTypes = in.readStringArray();
             message = in.readOptionalString();
         }
 
@@ -79,6 +92,7 @@ public class ConfigUpdateResponse extends BaseNodesResponse<ConfigUpdateResponse
         public void writeTo(StreamOutput out) throws IOException {
             super.writeTo(out);
             out.writeStringArray(updatedConfigTypes);
+            out.writeStringArray(changedConfigTypes == null ? new String[0] : changedConfigTypes);
             out.writeOptionalString(message);
         }
 
@@ -90,13 +104,21 @@ public class ConfigUpdateResponse extends BaseNodesResponse<ConfigUpdateResponse
 
         @Override
         public String toString() {
-            return "Node [updatedConfigTypes=" + Arrays.toString(updatedConfigTypes) + ", remoteAddress()=" + remoteAddress() + "]";
+            return "Node [updatedConfigTypes=" + Arrays.toString(updatedConfigTypes) + ", changedConfigTypes=" + Arrays.toString(changedConfigTypes)
+                    + ", remoteAddress()=" + remoteAddress() + "]";
         }
         
         public String[] getUpdatedConfigTypes() {
             return updatedConfigTypes==null?null:Arrays.copyOf(updatedConfigTypes, updatedConfigTypes.length);
         }
 
+        /**
+         * @return the loaded config types whose content actually changed
+         */
+        public String[] getChangedConfigTypes() {
+            return changedConfigTypes==null?null:Arrays.copyOf(changedConfigTypes, changedConfigTypes.length);
+        }
+
         public String getMessage() {
             return message;
         }
@@ -22,6 +22,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicReferenceArray;
@@ -50,7 +51,6 @@ import org.elasticsearch.threadpool.ThreadPool;
 import org.elasticsearch.transport.TransportService;
 
 import com.floragunn.searchguard.action.configupdate.ConfigUpdateResponse.Node;
-import com.floragunn.searchguard.auth.BackendRegistry;
 import com.floragunn.searchguard.configuration.ConfigChangeListener;
 import com.floragunn.searchguard.configuration.ConfigurationLoader;
 import com.floragunn.searchguard.support.ConfigConstants;
@@ -65,23 +65,22 @@ TransportNodesAction<ConfigUpdateRequest, ConfigUpdateResponse, TransportConfigU
 
     private final ClusterService clusterService;
     private final ConfigurationLoader cl;
-    private final Provider<BackendRegistry> backendRegistry;
     private final ListMultimap<String, ConfigChangeListener> multimap = Multimaps.synchronizedListMultimap(ArrayListMultimap
             .<String, ConfigChangeListener> create());
 
     private final String searchguardIndex;
+    //config per type as last passed to the listeners
+    private final Map<String, Settings> notified = new ConcurrentHashMap<String, Settings>();
     
     @Inject
     public TransportConfigUpdateAction(final Provider<Client> clientProvider, final Settings settings, final ClusterName clusterName,
             final ThreadPool threadPool, final ClusterService clusterService, final TransportService transportService,
-            final ConfigurationLoader cl, final ActionFilters actionFilters, final IndexNameExpressionResolver indexNameExpressionResolver,
-            Provider<BackendRegistry> backendRegistry) {
+            final ConfigurationLoader cl, final ActionFilters actionFilters, final IndexNameExpressionResolver indexNameExpressionResolver) {
         super(settings, ConfigUpdateAction.NAME, clusterName, threadPool, clusterService, transportService, actionFilters,
                 indexNameExpressionResolver, ConfigUpdateRequest.class, TransportConfigUpdateAction.NodeConfigUpdateRequest.class,
                 ThreadPool.Names.MANAGEMENT);
         this.cl = cl;
         this.clusterService = clusterService;
-        this.backendRegistry = backendRegistry;
         this.searchguardIndex = settings.get(ConfigConstants.SG_CONFIG_INDEX, ConfigConstants.SG_DEFAULT_CONFIG_INDEX);
 
         clusterService.addLifecycleListener(new LifecycleListener() {
@@ -151,15 +150,7 @@ TransportNodesAction<ConfigUpdateRequest, ConfigUpdateResponse, TransportConfigU
                             
                             
                             logger.debug("Retrieved config on node startup and will now update config change listeners");
-                            for (final String evt : setn.keySet()) {
-                                for (final ConfigChangeListener cl : new ArrayList<ConfigChangeListener>(multimap.get(evt))) {
-                                    Settings settings = setn.get(evt);
-                                    if(settings != null) {
-                                        cl.onChange(evt, settings);
-                                        logger.debug("Updated {} for {} due to initial configuration on node '{}'", evt, cl.getClass().getSimpleName(), clusterService.localNode().getName());
-                                    }
-                                }
-                            }
+                            notifyListeners(setn, "initial configuration");
                             
                             logger.info("Node '{}' initialized", clusterService.localNode().getName());
                             
@@ -261,18 +252,9 @@ TransportNodesAction<ConfigUpdateRequest, ConfigUpdateResponse, TransportConfigU
         try {
             final Map<String, Settings> setn = cl.load(request.request.getConfigTypes(), 30, TimeUnit.SECONDS);
             logger.debug("Retrieved config ({}) due to config update request and will now update config change listeners", Arrays.toString(request.request.getConfigTypes()));
-            backendRegistry.get().invalidateCache();
-            for (final String evt : setn.keySet()) {
-                for (final ConfigChangeListener cl : new ArrayList<ConfigChangeListener>(multimap.get(evt))) {
-                    Settings settings = setn.get(evt);
-                    if (settings != null) {
-                        cl.onChange(evt, settings);
-                        logger.debug("Updated {} for {} due to node operation on node {}", evt, cl.getClass().getSimpleName(),
-                                clusterService.localNode().getName());
-                    }
-                }
-            }
-            return new ConfigUpdateResponse.Node(clusterService.localNode(), setn.keySet().toArray(new String[0]), null);  
+            final List<String> changed = notifyListeners(setn, "node operation");
+            return new ConfigUpdateResponse.Node(clusterService.localNode(), setn.keySet().toArray(new String[0]), 
+                    changed.toArray(new String[changed.size()]), null);  
         } catch (InterruptedException e1) {
             Thread.currentThread().interrupt();
             logger.debug("Thread was interrupted, we return just a empty response");
@@ -283,6 +265,43 @@ TransportNodesAction<ConfigUpdateRequest, ConfigUpdateResponse, TransportConfigU
         }
     }
 
+    /**
+     * Call the listeners of all loaded config types. They are also called if the content did not change, 
+     * because pushing a config type is the way to flush the user caches and re-read roles from backends.
+     * 
+     * @return the config types whose content differs from what was passed to the listeners last time
+     */
+    private List<String> notifyListeners(final Map<String, Settings> setn, final String reason) {
+        final List<String> changed = new ArrayList<String>(setn.size());
+        
+        for (final String evt : setn.keySet()) {
+            final Settings settings = setn.get(evt);
+            
+            if (settings == null) {
+                continue;
+            }
+            
+            //same instance if the loader found the document unchanged
+            if (!settings.equals(notified.get(evt))) {
+                changed.add(evt);
+            }
+            
+            for (final ConfigChangeListener cl : new ArrayList<ConfigChangeListener>(multimap.get(evt))) {
+                cl.onChange(evt, settings);
+                logger.debug("Updated {} for {} due to {} on node {}", evt, cl.getClass().getSimpleName(), reason,
+                        clusterService.localNode().getName());
+            }
+            
+            notified.put(evt, settings);
+        }
+        
+        if (logger.isDebugEnabled()) {
+            logger.debug("Changed config types: {} of {}", changed, setn.keySet());
+        }
+        
+        return changed;
+    }
+
     public void addConfigChangeListener(final String event, final ConfigChangeListener listener) {
         logger.debug("Add config listener {}",listener.getClass());
         multimap.put(event, listener);
@@ -18,6 +18,12 @@
 package com.floragunn.searchguard.auth;
 
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import org.elasticsearch.common.settings.Settings;
+
+import com.floragunn.searchguard.user.AuthCredentials;
 
 public class AuthDomain implements Comparable<AuthDomain> {
 
@@ -25,13 +31,64 @@ public class AuthDomain implements Comparable<AuthDomain> {
     private final HTTPAuthenticator httpAuthenticator;
     private final int order;
     private final boolean challenge;
+    private final String name;
+    //user caches for rest, transport (by name) and transport (by credentials) requests
+    private final UserCache<AuthCredentials> restUserCache;
+    private final UserCache<String> transportUserCache;
+    private final UserCache<AuthCredentials> transportAuthenticatedUserCache;
 
     public AuthDomain(final AuthenticationBackend backend, final HTTPAuthenticator httpAuthenticator, boolean challenge, final int order) {
+        this("default", backend, httpAuthenticator, challenge, order, Settings.EMPTY);
+    }
+    
+    public AuthDomain(final String name, final AuthenticationBackend backend, final HTTPAuthenticator httpAuthenticator, boolean challenge, final int order, 
+            final Settings cacheSettings) {
+        this(name, backend, httpAuthenticator, challenge, order, cacheSettings, null);
+    }
+    
+    /**
+     * @param cacheSettings settings for the user caches of this domain, see {@link UserCache}
+     * @param refreshExecutor executor for reloading cached users in the background, null disables refresh ahead
+     */
+    public AuthDomain(final String name, final AuthenticationBackend backend, final HTTPAuthenticator httpAuthenticator, boolean challenge, final int order, 
+            final Settings cacheSettings, final Executor refreshExecutor) {
         super();
         this.backend = Objects.requireNonNull(backend);
         this.httpAuthenticator = httpAuthenticator;
         this.order = order;
         this.challenge = challenge;
+        this.name = Objects.requireNonNull(name);
+        this.restUserCache = new UserCache<AuthCredentials>(name + "/rest", cacheSettings, refreshExecutor);
+        this.transportUserCache = new UserCache<String>(name + "/transport", cacheSettings, refreshExecutor);
+        this.transportAuthenticatedUserCache = new UserCache<AuthCredentials>(name + "/transport_authenticated", cacheSettings, refreshExecutor);
+    }
+    
+    public String getName() {
+        return name;
+    }
+
+    public UserCache<AuthCredentials> getRestUserCache() {
+        return restUserCache;
+    }
+
+    public UserCache<String> getTransportUserCache() {
+        return transportUserCache;
+    }
+
+    public UserCache<AuthCredentials> getTransportAuthenticatedUserCache() {
+        return transportAuthenticatedUserCache;
+    }
+    
+    public void invalidateUserCaches() {
+        restUserCache.invalidateAll();
+        transportUserCache.invalidateAll();
+        transportAuthenticatedUserCache.invalidateAll();
+    }
+    
+    public void invalidateUserCaches(final Set<String> usernames) {
+        restUserCache.invalidateUsers(usernames);
+        transportUserCache.invalidateUsers(usernames);
+        transportAuthenticatedUserCache.invalidateUsers(usernames);
     }
 
     public boolean isChallenge() {
@@ -52,7 +109,7 @@ public class AuthDomain implements Comparable<AuthDomain> {
 
     @Override
     public String toString() {
-        return "AuthDomain [backend=" + backend + ", httpAuthenticator=" + httpAuthenticator + ", order=" + order + ", challenge="
+        return "AuthDomain [name=" + name + ", backend=" + backend + ", httpAuthenticator=" + httpAuthenticator + ", order=" + order + ", challenge="
                 + challenge + "]";
     }
 
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2017 floragunn GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.floragunn.searchguard.auth;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.elasticsearch.common.settings.Settings;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Counts failed logins per user name and per source address. After allowed_tries failures further
+ * attempts are rejected without calling any backend for an exponentially growing delay.
+ * <p>
+ * Configured in sg_config (disabled by default):
+ * <pre>
+ * searchguard.dynamic.http.failure_backoff:
+ *   enabled: false
+ *   allowed_tries: 5            # failures before requests are rejected
+ *   initial_delay_ms: 1000      # first rejection period, doubled with every further failure
+ *   max_delay_ms: 60000
+ *   reset_after_minutes: 10     # forget a user or address after this time without requests
+ *   max_tracked: 100000         # max number of tracked users and addresses
+ * </pre>
+ */
+final class AuthFailureBackoff {
+
+    static final AuthFailureBackoff DISABLED = new AuthFailureBackoff(Settings.EMPTY);
+
+    private final boolean enabled;
+    private final int allowedTries;
+    private final long initialDelayNanos;
+    private final long maxDelayNanos;
+    private final Ticker ticker;
+    private final Cache<String, Failures> failures;
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    AuthFailureBackoff(final Settings backoffSettings) {
+        this(backoffSettings, Ticker.systemTicker());
+    }
+
+    AuthFailureBackoff(final Settings backoffSettings, final Ticker ticker) {
+        this.enabled = backoffSettings.getAsBoolean("enabled", false);
+        this.allowedTries = Math.max(1, backoffSettings.getAsInt("allowed_tries", 5));
+        this.initialDelayNanos = TimeUnit.MILLISECONDS.toNanos(backoffSettings.getAsLong("initial_delay_ms", 1000L));
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(backoffSettings.getAsLong("max_delay_ms", 60000L));
+        this.ticker = ticker;
+        this.failures = enabled ? CacheBuilder.newBuilder()
+                .maximumSize(backoffSettings.getAsInt("max_tracked", 100000))
+                .expireAfterAccess(backoffSettings.getAsInt("reset_after_minutes", 10), TimeUnit.MINUTES)
+                .ticker(ticker)
+                .<String, Failures>build() : null;
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return true if requests from this address must be rejected for now
+     */
+    boolean isAddressBlocked(final String address) {
+        return isBlocked("a:", address);
+    }
+
+    /**
+     * @return true if requests for this user must be rejected for now
+     */
+    boolean isUserBlocked(final String username) {
+        return isBlocked("u:", username);
+    }
+
+    void onFailure(final String username, final String address) {
+        if (!enabled) {
+            return;
+        }
+
+        if (username != null) {
+            recordFailure("u:" + username);
+        }
+
+        if (address != null) {
+            recordFailure("a:" + address);
+        }
+    }
+
+    void onSuccess(final String username) {
+        if (enabled && username != null) {
+            failures.invalidate("u:" + username);
+        }
+    }
+
+    long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    private boolean isBlocked(final String prefix, final String key) {
+        if (!enabled || key == null) {
+            return false;
+        }
+
+        final Failures f = failures.getIfPresent(prefix + key);
+
+        if (f != null && f.isBlocked(ticker.read())) {
+            rejectedCount.incrementAndGet();
+            return true;
+        }
+
+        return false;
+    }
+
+    private void recordFailure(final String key) {
+        final Failures newFailures = new Failures();
+        final Failures f = failures.asMap().putIfAbsent(key, newFailures);
+        (f == null ? newFailures : f).recordFailure(ticker.read(), allowedTries, initialDelayNanos, maxDelayNanos);
+    }
+
+    private static final class Failures {
+
+        private int count;
+        private long blockedUntil;
+        private boolean blocked;
+
+        synchronized void recordFailure(final long now, final int allowedTries, final long initialDelayNanos, final long maxDelayNanos) {
+            count++;
+
+            if (count >= allowedTries) {
+                final int exponent = Math.min(62, count - allowedTries);
+                //initialDelay * 2^exponent capped at maxDelay without overflow
+                blockedUntil = now + (initialDelayNanos > (maxDelayNanos >> exponent) ? maxDelayNanos : initialDelayNanos << exponent);
+                blocked = true;
+            }
+        }
+
+        synchronized boolean isBlocked(final long now) {
+            return blocked && now - blockedUntil < 0;
+        }
+    }
+}
@@ -19,26 +19,35 @@ package com.floragunn.searchguard.auth;
 
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import javax.naming.InvalidNameException;
 import javax.naming.ldap.LdapName;
 
 import org.elasticsearch.ElasticsearchSecurityException;
+import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.common.component.LifecycleListener;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.logging.ESLogger;
 import org.elasticsearch.common.logging.Loggers;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.transport.TransportAddress;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
 import org.elasticsearch.rest.BytesRestResponse;
 import org.elasticsearch.rest.RestChannel;
 import org.elasticsearch.rest.RestController;
@@ -49,6 +58,7 @@ import org.elasticsearch.transport.TransportRequest;
 
 import com.floragunn.searchguard.action.configupdate.TransportConfigUpdateAction;
 import com.floragunn.searchguard.auditlog.AuditLog;
+import com.floragunn.searchguard.auth.UserCache.UncachedUserException;
 import com.floragunn.searchguard.auth.internal.InternalAuthenticationBackend;
 import com.floragunn.searchguard.auth.internal.NoOpAuthenticationBackend;
 import com.floragunn.searchguard.auth.internal.NoOpAuthorizationBackend;
@@ -67,57 +77,34 @@ import com.floragunn.searchguard.support.LogHelper;
 import com.floragunn.searchguard.user.AuthCredentials;
 import com.floragunn.searchguard.user.User;
 import com.google.common.base.Strings;
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.RemovalListener;
-import com.google.common.cache.RemovalNotification;
 
 public class BackendRegistry implements ConfigChangeListener {
 
     protected final ESLogger log = Loggers.getLogger(this.getClass());
     private final Map<String, String> authImplMap = new HashMap<String, String>();
-    private final SortedSet<AuthDomain> authDomains = new TreeSet<AuthDomain>();
-    private final Set<AuthorizationBackend> authorizers = new HashSet<AuthorizationBackend>();
+    //immutable snapshot, replaced as a whole on config change
+    private volatile AuthConfig authConfig = new AuthConfig(new TreeSet<AuthDomain>(), new RoleResolver(new ArrayList<AuthorizationBackend>(), new ArrayList<Long>(), null), false, AuthFailureBackoff.DISABLED);
     private volatile boolean initialized;
+    //last seen internal users, to evict only the users which changed
+    private volatile Settings internalUsers;
     private final TransportConfigUpdateAction tcua;
     private final AdminDNs adminDns;
     private final XFFResolver xffResolver;
-    private volatile boolean anonymousAuthEnabled = false;
     private final Settings esSettings;
     private final InternalAuthenticationBackend iab;
     private final AuditLog auditLog;
-
-    private Cache<AuthCredentials, User> userCache = CacheBuilder.newBuilder()
-            .expireAfterWrite(1, TimeUnit.HOURS)
-            .removalListener(new RemovalListener<AuthCredentials, User>() {
-                @Override
-                public void onRemoval(RemovalNotification<AuthCredentials, User> notification) {
-                    log.debug("Clear user cache for {} due to {}", notification.getKey().getUsername(), notification.getCause());
-                }
-            }).build();
-    
-    private Cache<String, User> userCacheTransport = CacheBuilder.newBuilder()
-            .expireAfterWrite(1, TimeUnit.HOURS)
-            .removalListener(new RemovalListener<String, User>() {
-                @Override
-                public void onRemoval(RemovalNotification<String, User> notification) {
-                    log.debug("Clear user cache for {} due to {}", notification.getKey(), notification.getCause());
-                }
-            }).build();
-    
-    private Cache<AuthCredentials, User> authenticatedUserCacheTransport = CacheBuilder.newBuilder()
-            .expireAfterWrite(1, TimeUnit.HOURS)
-            .removalListener(new RemovalListener<AuthCredentials, User>() {
-                @Override
-                public void onRemoval(RemovalNotification<AuthCredentials, User> notification) {
-                    log.debug("Clear user cache for {} due to {}", notification.getKey().getUsername(), notification.getCause());
-                }
-            }).build();
+    //reloads cached users in the background, bounded so that a slow backend can not pile up work
+    private final ThreadPoolExecutor refreshExecutor;
+    //runs the authorization backends in parallel and with a timeout
+    private final ThreadPoolExecutor authzExecutor;
+    //authenticates rest requests which can not be served from the user cache, null if disabled
+    private final ThreadPoolExecutor authcExecutor;
 
     @Inject
     public BackendRegistry(final Settings settings, final RestController controller, final TransportConfigUpdateAction tcua, final ClusterService cse,
             final AdminDNs adminDns, final XFFResolver xffResolver, InternalAuthenticationBackend iab, AuditLog auditLog) {
         tcua.addConfigChangeListener(ConfigurationService.CONFIGNAME_CONFIG, this);
+        tcua.addConfigChangeListener(ConfigurationService.CONFIGNAME_INTERNAL_USERS, this);
         controller.registerFilter(new SearchGuardRestFilter(this, auditLog));
         this.tcua = tcua;
         this.adminDns = adminDns;
@@ -126,6 +113,36 @@ public class BackendRegistry implements ConfigChangeListener {
         this.iab = iab;
         this.auditLog = auditLog;
         
+        final int refreshThreads = Math.max(1, settings.getAsInt(ConfigConstants.SG_AUTHC_REFRESH_THREADS, 2));
+        this.refreshExecutor = new ThreadPoolExecutor(refreshThreads, refreshThreads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(Math.max(1, settings.getAsInt(ConfigConstants.SG_AUTHC_REFRESH_QUEUE_SIZE, 1000))),
+                EsExecutors.daemonThreadFactory(settings, "sg_authc_refresh"));
+        this.refreshExecutor.allowCoreThreadTimeOut(true);
+        
+        final int authzThreads = Math.max(1, settings.getAsInt(ConfigConstants.SG_AUTHZ_THREADS, 4));
+        this.authzExecutor = new ThreadPoolExecutor(authzThreads, authzThreads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(Math.max(1, settings.getAsInt(ConfigConstants.SG_AUTHZ_QUEUE_SIZE, 1000))),
+                EsExecutors.daemonThreadFactory(settings, "sg_authz"));
+        this.authzExecutor.allowCoreThreadTimeOut(true);
+        
+        if(settings.getAsBoolean(ConfigConstants.SG_AUTHC_ASYNC, true)) {
+            final int authcThreads = Math.max(1, settings.getAsInt(ConfigConstants.SG_AUTHC_THREADS, EsExecutors.boundedNumberOfProcessors(settings)));
+            this.authcExecutor = new ThreadPoolExecutor(authcThreads, authcThreads, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(Math.max(1, settings.getAsInt(ConfigConstants.SG_AUTHC_QUEUE_SIZE, 1000))),
+                    EsExecutors.daemonThreadFactory(settings, "sg_authc"));
+            this.authcExecutor.allowCoreThreadTimeOut(true);
+        } else {
+            this.authcExecutor = null;
+        }
+        
+        //the executors are not managed by the es thread pool, so stop them together with the node
+        cse.addLifecycleListener(new LifecycleListener() {
+            @Override
+            public void beforeClose() {
+                close();
+            }
+        });
+        
         authImplMap.put("intern_c", InternalAuthenticationBackend.class.getName());
         authImplMap.put("intern_z", NoOpAuthorizationBackend.class.getName());
         
@@ -146,10 +163,50 @@ public class BackendRegistry implements ConfigChangeListener {
         authImplMap.put("host_h", HTTPHostAuthenticator.class.getName());
     }
     
+    /**
+     * Stop the authentication, authorization and refresh executors, running backend calls are interrupted
+     */
+    public void close() {
+        refreshExecutor.shutdownNow();
+        authzExecutor.shutdownNow();
+        if(authcExecutor != null) {
+            authcExecutor.shutdownNow();
+        }
+    }
+    
     public void invalidateCache() {
-        userCache.invalidateAll();
-        userCacheTransport.invalidateAll();
-        authenticatedUserCacheTransport.invalidateAll();
+        for (final AuthDomain authDomain : authConfig.authDomains) {
+            authDomain.invalidateUserCaches();
+        }
+    }
+    
+    /**
+     * Evict only the given users (and remembered failures for them) from the user caches
+     */
+    public void invalidateCache(final Set<String> usernames) {
+        for (final AuthDomain authDomain : authConfig.authDomains) {
+            authDomain.invalidateUserCaches(usernames);
+        }
+    }
+    
+    /**
+     * @return the user caches of all currently configured auth domains
+     */
+    public List<UserCache<?>> getUserCaches() {
+        final List<UserCache<?>> caches = new ArrayList<UserCache<?>>();
+        for (final AuthDomain authDomain : authConfig.authDomains) {
+            caches.add(authDomain.getRestUserCache());
+            caches.add(authDomain.getTransportUserCache());
+            caches.add(authDomain.getTransportAuthenticatedUserCache());
+        }
+        return caches;
+    }
+
+    /**
+     * @return number of rest requests rejected due to too many failed logins since the last config change
+     */
+    public long getFailureBackoffRejectedCount() {
+        return authConfig.failureBackoff.getRejectedCount();
     }
 
     private <T> T newInstance(final String clazzOrShortcut, String type, final Settings settings) throws ClassNotFoundException, NoSuchMethodException,
@@ -175,9 +232,17 @@ public class BackendRegistry implements ConfigChangeListener {
 
     @Override
     public void onChange(final String event, final Settings settings) {
-        authDomains.clear();
-        authorizers.clear();
-        anonymousAuthEnabled = settings.getAsBoolean("searchguard.dynamic.http.anonymous_auth_enabled", false);
+        
+        if(ConfigurationService.CONFIGNAME_INTERNAL_USERS.equals(event)) {
+            onInternalUsersChange(settings);
+            return;
+        }
+        
+        //auth domains and their user caches are created from scratch
+        final SortedSet<AuthDomain> authDomains = new TreeSet<AuthDomain>();
+        final List<AuthorizationBackend> authorizers = new ArrayList<AuthorizationBackend>();
+        final List<Long> authorizerTimeouts = new ArrayList<Long>();
+        final boolean anonymousAuthEnabled = settings.getAsBoolean("searchguard.dynamic.http.anonymous_auth_enabled", false);
         
         final Map<String, Settings> authzDyn = settings.getGroups("searchguard.dynamic.authz");
         
@@ -189,6 +254,7 @@ public class BackendRegistry implements ConfigChangeListener {
                             ads.get("authorization_backend.type", "noop"),"z",
                             Settings.builder().put(esSettings).put(ads.getAsSettings("authorization_backend.config")).build());
                     authorizers.add(authorizationBackend);
+                    authorizerTimeouts.add(ads.getAsLong("timeout_ms", RoleResolver.DEFAULT_TIMEOUT_MS));
                 } catch (final Exception e) {
                     log.error("Unable to initialize AuthorizationBackend {} due to {}", e, ad, e.toString());
                 }
@@ -217,8 +283,8 @@ public class BackendRegistry implements ConfigChangeListener {
                     HTTPAuthenticator httpAuthenticator = httpAuthenticatorType==null?null:  (HTTPAuthenticator) newInstance(httpAuthenticatorType,"h",
                             Settings.builder().put(esSettings).put(ads.getAsSettings("http_authenticator.config")).build());
                                         
-                    authDomains.add(new AuthDomain(authenticationBackend, httpAuthenticator,
-                            ads.getAsBoolean("http_authenticator.challenge", true), ads.getAsInt("order", 0)));
+                    authDomains.add(new AuthDomain(ad, authenticationBackend, httpAuthenticator,
+                            ads.getAsBoolean("http_authenticator.challenge", true), ads.getAsInt("order", 0), ads.getAsSettings("cache"), refreshExecutor));
                 } catch (final Exception e) {
                     log.error("Unable to initialize auth domain {} due to {}", e, ad, e.toString());
                 }
@@ -229,10 +295,63 @@ public class BackendRegistry implements ConfigChangeListener {
         if(authDomains.isEmpty()) {
             authDomains.add(new AuthDomain(iab, new HTTPBasicAuthenticator(Settings.EMPTY), true, 0));
         }
+        
+        authConfig = new AuthConfig(authDomains, new RoleResolver(authorizers, authorizerTimeouts, authzExecutor), anonymousAuthEnabled, 
+                new AuthFailureBackoff(settings.getAsSettings("searchguard.dynamic.http.failure_backoff")));
 
         initialized = true;
     }
 
+    private void onInternalUsersChange(final Settings settings) {
+        final Settings previous = this.internalUsers;
+        this.internalUsers = settings;
+        
+        if(previous == null) {
+            //failed logins before the internal users were known may be remembered
+            invalidateCache();
+            return;
+        }
+        
+        final Set<String> changedUsers = changedInternalUsers(previous, settings);
+        
+        if(log.isDebugEnabled()) {
+            log.debug("Internal users changed: {}", changedUsers);
+        }
+        
+        if(!changedUsers.isEmpty()) {
+            invalidateCache(changedUsers);
+        }
+    }
+    
+    /**
+     * @return names of all added, removed or modified internal users including old and new username aliases
+     */
+    static Set<String> changedInternalUsers(final Settings previous, final Settings current) {
+        final Set<String> names = new HashSet<String>(previous.names());
+        names.addAll(current.names());
+        
+        final Set<String> changed = new HashSet<String>();
+        
+        for(final String name: names) {
+            final Settings previousUser = previous.getByPrefix(name + ".");
+            final Settings currentUser = current.getByPrefix(name + ".");
+            
+            if(!previousUser.getAsMap().equals(currentUser.getAsMap())) {
+                changed.add(name);
+                
+                if(previousUser.get("username") != null) {
+                    changed.add(previousUser.get("username"));
+                }
+                
+                if(currentUser.get("username") != null) {
+                    changed.add(currentUser.get("username"));
+                }
+            }
+        }
+        
+        return changed;
+    }
+
     @Override
     public void validate(final String event, final Settings settings) throws ElasticsearchSecurityException {
 
@@ -264,44 +383,41 @@ public class BackendRegistry implements ConfigChangeListener {
             log.debug("User {} submitted also basic credentials: {}", user.getName(), creds);
         }
           
-        for (final Iterator<AuthDomain> iterator = new TreeSet<AuthDomain>(authDomains).iterator(); iterator.hasNext();) {
+        final AuthConfig authConfig = this.authConfig;
+          
+        for (final AuthDomain authDomain : authConfig.authDomains) {
 
-            final AuthDomain authDomain = (AuthDomain) iterator.next();
             User authenticatedUser = null;
 
             if(creds == null) {
                 
                 if(log.isDebugEnabled()) {
-                    log.debug("Transport User '{}' is in cache? {} (cache size: {})", user.getName(), userCacheTransport.getIfPresent(user.getName())!=null, userCacheTransport.size());
+                    log.debug("Transport User '{}' is in cache? {} (cache size: {})", user.getName(), authDomain.getTransportUserCache().getIfPresent(user.getName())!=null, authDomain.getTransportUserCache().size());
                 }
                 
                 try {
-                    authenticatedUser = userCacheTransport.get(user.getName(), new Callable<User>() {
+                    authenticatedUser = authDomain.getTransportUserCache().get(user.getName(), new Callable<User>() {
                         @Override
                         public User call() throws Exception {
                             if (log.isDebugEnabled()) {
                                 log.debug(user.getName() + " not cached, return from backend directly");
                             }
+                            
+                            //fresh instance because this may also run later as background refresh
+                            final User _user = new User(user.getName());
 
-                            if (authDomain.getBackend().exists(user)) {
-                                for (final AuthorizationBackend ab : authorizers) {
-
-                                    // TODO transform username
-
-                                    try {
-                                        ab.fillRoles(user, new AuthCredentials(user.getName()));
-                                    } catch (Exception e) {
-                                        log.error("Problems retrieving roles for {} from {}", user, ab.getClass());
-                                    }
-                                }
-                                return user;
+                            if (authDomain.getBackend().exists(_user)) {
+                                return authorize(authConfig, _user);
                             }
 
                             throw new Exception("no such user " + user.getName());
                         }
                     });
                 } catch (Exception e) {
-                    log.error("Unexpected exception {} ", e, e.toString());
+                    //expected for users not known to this domain, logged below (once per domain) at info level
+                    if(log.isDebugEnabled()) {
+                        log.debug("Unable to authenticate or authorize with {} due to {}", e, authDomain.getName(), e.toString());
+                    }
                     throw new ElasticsearchSecurityException(e.toString(), e);
                 }
             } else {
@@ -309,35 +425,16 @@ public class BackendRegistry implements ConfigChangeListener {
                 
                 if (log.isDebugEnabled()) {
                     log.debug("Transport User '{}' is in cache? {} (cache size: {})", creds.getUsername(),
-                            authenticatedUserCacheTransport.getIfPresent(creds) != null, authenticatedUserCacheTransport.size());
+                            authDomain.getTransportAuthenticatedUserCache().getIfPresent(creds) != null, authDomain.getTransportAuthenticatedUserCache().size());
                 }
 
                 try {
-                    authenticatedUser = authenticatedUserCacheTransport.get(creds, new Callable<User>() {
-                        @Override
-                        public User call() throws Exception {
-                            if (log.isDebugEnabled()) {
-                                log.debug(creds.getUsername() + " not cached, return from backend directly");
-                            }
-
-                            // full authentication
-                            User _user = authDomain.getBackend().authenticate(creds);
-
-                            for (final AuthorizationBackend ab : authorizers) {
-
-                                // TODO transform username
-
-                                try {
-                                    ab.fillRoles(_user, new AuthCredentials(_user.getName()));
-                                } catch (Exception e) {
-                                    log.error("Problems retrieving roles for {} from {}", _user, ab.getClass());
-                                }
-                            }
-                            return _user;
-                        }
-                    });
+                    authenticatedUser = authDomain.getTransportAuthenticatedUserCache().get(creds, new CredentialsLoader(authDomain, authConfig, creds));
                 } catch (Exception e) {
-                    log.error("Unexpected exception {} ", e, e.toString());
+                    //expected for users not known to this domain, logged below (once per domain) at info level
+                    if(log.isDebugEnabled()) {
+                        log.debug("Unable to authenticate or authorize with {} due to {}", e, authDomain.getName(), e.toString());
+                    }
                     throw new ElasticsearchSecurityException(e.toString(), e);
                 } finally {
                     creds.clearSecrets();
@@ -380,6 +477,109 @@ public class BackendRegistry implements ConfigChangeListener {
         return false;
     }
     
+    /**
+     * Authenticate a rest request without blocking the calling (http worker) thread on slow backends.
+     * <p>
+     * If the request can be authenticated from the user caches (or needs no backend at all) this happens
+     * inline, otherwise {@link #authenticate(RestRequest, RestChannel)} runs on the authentication thread pool.
+     * The credentials are extracted only once, on the calling thread.
+     * If the pool is saturated the request is rejected with 429 Too Many Requests.
+     * 
+     * @param listener called with true if the request is authenticated, with false if a response was already sent
+     */
+    public void authenticate(final RestRequest request, final RestChannel channel, final ActionListener<Boolean> listener) {
+        
+        final ExtractedCredentials extracted = authcExecutor == null ? null : extractCredentials(request);
+        
+        if(extracted == null || extracted.cached) {
+            authenticate(request, channel, listener, extracted, false);
+            return;
+        }
+        
+        try {
+            authcExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    authenticate(request, channel, listener, extracted, true);
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            extracted.clearSecrets();
+            log.warn("Authentication of rest request rejected because the authentication thread pool is saturated");
+            channel.sendResponse(new BytesRestResponse(RestStatus.TOO_MANY_REQUESTS, "Search Guard authentication queue is full, try again later"));
+        }
+    }
+    
+    private void authenticate(final RestRequest request, final RestChannel channel, final ActionListener<Boolean> listener, 
+            final ExtractedCredentials extracted, final boolean forked) {
+        final boolean authenticated;
+        
+        try {
+            authenticated = authenticate(request, channel, extracted);
+        } catch (final Exception e) {
+            listener.onFailure(e);
+            return;
+        } finally {
+            if(extracted != null) {
+                extracted.clearSecrets();
+            }
+        }
+        
+        if(log.isTraceEnabled()) {
+            log.trace("Rest request authenticated={} (forked={})", authenticated, forked);
+        }
+        
+        listener.onResponse(authenticated);
+    }
+    
+    /**
+     * Extract the credentials of the request up to the first auth domain with complete credentials and check
+     * if authenticating the request will not call any authentication or authorization backend.
+     * 
+     * @return null if no auth domain is involved (not initialized or admin)
+     */
+    private ExtractedCredentials extractCredentials(final RestRequest request) {
+        
+        final AuthConfig authConfig = this.authConfig;
+        
+        if(!isInitialized() || authConfig == null || adminDns.isAdmin((String) request.getFromContext(ConfigConstants.SG_SSL_PRINCIPAL))) {
+            return null;
+        }
+        
+        final ExtractedCredentials extracted = new ExtractedCredentials(authConfig);
+        
+        for (final AuthDomain authDomain : authConfig.authDomains) {
+            
+            final HTTPAuthenticator httpAuthenticator = authDomain.getHttpAuthenticator();
+            
+            if(httpAuthenticator == null) {
+                continue;
+            }
+            
+            final AuthCredentials ac;
+            try {
+                ac = httpAuthenticator.extractCredentials(request);
+            } catch (final Exception e) {
+                extracted.failures.put(authDomain, e);
+                continue;
+            }
+            
+            extracted.credentials.put(authDomain, ac);
+            
+            if(ac == null || !ac.isComplete()) {
+                //challenge or next domain, no backend involved yet
+                continue;
+            }
+            
+            extracted.cached = authDomain.getRestUserCache().contains(ac);
+            return extracted;
+        }
+        
+        //anonymous or challenge
+        extracted.cached = true;
+        return extracted;
+    }
+    
     /**
      * 
      * @param request
@@ -388,6 +588,13 @@ public class BackendRegistry implements ConfigChangeListener {
      * @throws ElasticsearchSecurityException
      */
     public boolean authenticate(final RestRequest request, final RestChannel channel) throws ElasticsearchSecurityException {
+        return authenticate(request, channel, null);
+    }
+    
+    /**
+     * @param extracted credentials already extracted from the request, can be null
+     */
+    private boolean authenticate(final RestRequest request, final RestChannel channel, final ExtractedCredentials extracted) throws ElasticsearchSecurityException {
 
         if(log.isTraceEnabled()) {
             log.trace(LogHelper.toString(request));
@@ -407,7 +614,20 @@ public class BackendRegistry implements ConfigChangeListener {
             return false;
         }
         
-        request.putInContext(ConfigConstants.SG_REMOTE_ADDRESS, xffResolver.resolve(request));
+        final TransportAddress remoteAddress = xffResolver.resolve(request);
+        request.putInContext(ConfigConstants.SG_REMOTE_ADDRESS, remoteAddress);
+        
+        //the auth domains the credentials were extracted for
+        final AuthConfig authConfig = extracted == null ? this.authConfig : extracted.authConfig;
+        final String remoteHost = remoteAddress == null ? null : remoteAddress.getAddress();
+        
+        if(authConfig.failureBackoff.isAddressBlocked(remoteHost)) {
+            if(log.isDebugEnabled()) {
+                log.debug("Reject request from {} due to too many failed logins", remoteHost);
+            }
+            channel.sendResponse(new BytesRestResponse(RestStatus.UNAUTHORIZED));
+            return false;
+        }
         
         boolean authenticated = false;
         
@@ -417,9 +637,7 @@ public class BackendRegistry implements ConfigChangeListener {
         
         HTTPAuthenticator firstChallengingHttpAuthenticator = null;
         
-        for (final Iterator<AuthDomain> iterator = new TreeSet<AuthDomain>(authDomains).iterator(); iterator.hasNext();) {
-
-            final AuthDomain authDomain = iterator.next();
+        for (final AuthDomain authDomain : authConfig.authDomains) {
             
             final HTTPAuthenticator httpAuthenticator = authDomain.getHttpAuthenticator();
             
@@ -436,7 +654,14 @@ public class BackendRegistry implements ConfigChangeListener {
             }
             final AuthCredentials ac;
             try {
-                ac = httpAuthenticator.extractCredentials(request);
+                if(extracted != null && extracted.failures.containsKey(authDomain)) {
+                    throw extracted.failures.get(authDomain);
+                } else if(extracted != null && extracted.credentials.containsKey(authDomain)) {
+                    //one time tokens (like SPNEGO) can not be extracted twice
+                    ac = extracted.credentials.get(authDomain);
+                } else {
+                    ac = httpAuthenticator.extractCredentials(request);
+                }
             } catch (Exception e1) {
                 if(log.isDebugEnabled()) {
                     log.debug("'{}' extracting credentials from {} authenticator", e1, httpAuthenticator.getType());    
@@ -447,7 +672,7 @@ public class BackendRegistry implements ConfigChangeListener {
             
             if (ac == null) {
                 //no credentials found in request
-                if(anonymousAuthEnabled) {
+                if(authConfig.anonymousAuthEnabled) {
                     continue;
                 }
                         
@@ -476,37 +701,30 @@ public class BackendRegistry implements ConfigChangeListener {
               
             } 
             ////credentials found in request and they are complete
+            
+            if(authConfig.failureBackoff.isUserBlocked(ac.getUsername())) {
+                //fast reject without calling any backend
+                if(log.isDebugEnabled()) {
+                    log.debug("Reject request for {} due to too many failed logins", ac.getUsername());
+                }
+                ac.clearSecrets();
+                channel.sendResponse(new BytesRestResponse(RestStatus.UNAUTHORIZED));
+                return false;
+            }
 
             if(log.isDebugEnabled()) {
-                log.debug("User '{}' is in cache? {} (cache size: {})", ac.getUsername(), userCache.getIfPresent(ac)!=null, userCache.size());
+                log.debug("User '{}' is in cache? {} (cache size: {})", ac.getUsername(), authDomain.getRestUserCache().getIfPresent(ac)!=null, authDomain.getRestUserCache().size());
             }
             
             try {
                 try {
-                    authenticatedUser = userCache.get(ac, new Callable<User>() {
-                        @Override
-                        public User call() throws Exception {
-                            if(log.isDebugEnabled()) {
-                                log.debug(ac.getUsername()+" not cached, return from "+authDomain.getBackend().getType()+" backend directly");
-                            }
-                            User authenticatedUser = authDomain.getBackend().authenticate(ac);
-                            for (final AuthorizationBackend ab : authorizers) {
-                                
-                                //TODO transform username
-                                
-                                try {
-                                    ab.fillRoles(authenticatedUser, new AuthCredentials(authenticatedUser.getName()));
-                                } catch (Exception e) {
-                                    log.error("Problems retrieving roles for {} from {}", authenticatedUser, ab.getClass());
-                                }
-                            }
-                            //authDomain.getAbackend().fillRoles(authenticatedUser, new AuthCredentials(authenticatedUser.getName(), (Object) null));
-                            return authenticatedUser;
-                        }
-                    });
+                    authenticatedUser = authDomain.getRestUserCache().get(ac, new CredentialsLoader(authDomain, authConfig, ac));
                 } catch (Exception e) {
                     //no audit log here, we catch this exception later
-                    log.error("Unexpected exception {} ", e, e.toString());
+                    //expected for users not known to this domain, logged below (once per domain) at info level
+                    if(log.isDebugEnabled()) {
+                        log.debug("Unable to authenticate or authorize with {} due to {}", e, authDomain.getName(), e.toString());
+                    }
                     throw new ElasticsearchSecurityException(e.toString(), e);
                 } finally {
                     ac.clearSecrets();
@@ -532,9 +750,11 @@ public class BackendRegistry implements ConfigChangeListener {
                     log.debug("sg_tenant '{}'", tenant);
                 }
                 
-                authenticatedUser.setRequestedTenant(tenant);
+                //the cached user is shared, so the tenant goes into a per request copy
+                authenticatedUser = authenticatedUser.withRequestedTenant(tenant);
                 
                 request.putInContext(ConfigConstants.SG_USER, authenticatedUser);
+                authConfig.failureBackoff.onSuccess(ac.getUsername());
                 authenticated = true;
                 break;
             } catch (final ElasticsearchSecurityException e) {
@@ -552,10 +772,10 @@ public class BackendRegistry implements ConfigChangeListener {
             //no reRequest possible
             
             if(log.isDebugEnabled()) {
-                log.debug("User not authenticated after checking {} auth domains", authDomains.size());
+                log.debug("User not authenticated after checking {} auth domains", authConfig.authDomains.length);
             }
             
-            if(authCredenetials == null && anonymousAuthEnabled) {
+            if(authCredenetials == null && authConfig.anonymousAuthEnabled) {
                 request.putInContext(ConfigConstants.SG_USER, User.ANONYMOUS);
                 if(log.isDebugEnabled()) {
                     log.debug("Anonymous User is authenticated");
@@ -563,6 +783,10 @@ public class BackendRegistry implements ConfigChangeListener {
                 return true;
             }
             
+            if(authCredenetials != null) {
+                authConfig.failureBackoff.onFailure(authCredenetials.getUsername(), remoteHost);
+            }
+            
             if(firstChallengingHttpAuthenticator != null) {
                 
                 if(log.isDebugEnabled()) {
@@ -638,4 +862,105 @@ public class BackendRegistry implements ConfigChangeListener {
         return true;
     }
 
+    /**
+     * Adds the roles of all authorization backends and seals the user for the user cache
+     * 
+     * @throws UncachedUserException if not all authorization backends answered in time, the user with the roles 
+     * of the other backends is then only used for the current request
+     */
+    private static User authorize(final AuthConfig authConfig, final User user) throws UncachedUserException {
+        
+        final boolean complete = authConfig.roleResolver.fillRoles(user);
+        //cached, so make it immutable
+        user.seal();
+        
+        if (!complete) {
+            throw new UncachedUserException(user, "Not all authorization backends answered in time for " + user.getName());
+        }
+        
+        return user;
+    }
+
+    /**
+     * Full authentication and authorization with the credentials of the current request. The secrets of these credentials
+     * are cleared by the caller after the request, so only a background refresh gets (and clears) its own copy.
+     */
+    private final class CredentialsLoader implements UserCache.RefreshableLoader {
+        
+        private final AuthDomain authDomain;
+        private final AuthConfig authConfig;
+        private final AuthCredentials creds;
+        
+        private CredentialsLoader(final AuthDomain authDomain, final AuthConfig authConfig, final AuthCredentials creds) {
+            this.authDomain = authDomain;
+            this.authConfig = authConfig;
+            this.creds = creds;
+        }
+
+        @Override
+        public User call() throws Exception {
+            if(log.isDebugEnabled()) {
+                log.debug(creds.getUsername()+" not cached, return from "+authDomain.getBackend().getType()+" backend directly");
+            }
+            
+            //authDomain.getAbackend().fillRoles(authenticatedUser, new AuthCredentials(authenticatedUser.getName(), (Object) null));
+            return authorize(authConfig, authDomain.getBackend().authenticate(creds));
+        }
+
+        @Override
+        public UserCache.RefreshableLoader copyForRefresh() {
+            return new CredentialsLoader(authDomain, authConfig, new AuthCredentials(creds));
+        }
+
+        @Override
+        public void release() {
+            creds.clearSecrets();
+        }
+    }
+
+    /**
+     * Immutable snapshot of the dynamic authentication/authorization configuration
+     */
+    private static final class AuthConfig {
+        
+        //sorted by order
+        private final AuthDomain[] authDomains;
+        private final RoleResolver roleResolver;
+        private final boolean anonymousAuthEnabled;
+        private final AuthFailureBackoff failureBackoff;
+        
+        private AuthConfig(final SortedSet<AuthDomain> authDomains, final RoleResolver roleResolver, final boolean anonymousAuthEnabled,
+                final AuthFailureBackoff failureBackoff) {
+            this.authDomains = authDomains.toArray(new AuthDomain[authDomains.size()]);
+            this.roleResolver = roleResolver;
+            this.anonymousAuthEnabled = anonymousAuthEnabled;
+            this.failureBackoff = failureBackoff;
+        }
+    }
+
+
+    /**
+     * Credentials extracted from a rest request, per auth domain of one {@link AuthConfig}
+     */
+    private static final class ExtractedCredentials {
+        
+        private final AuthConfig authConfig;
+        //null value means no credentials in the request
+        private final Map<AuthDomain, AuthCredentials> credentials = new IdentityHashMap<AuthDomain, AuthCredentials>();
+        private final Map<AuthDomain, Exception> failures = new IdentityHashMap<AuthDomain, Exception>();
+        //true if no backend call is needed
+        private boolean cached;
+        
+        private ExtractedCredentials(final AuthConfig authConfig) {
+            this.authConfig = authConfig;
+        }
+        
+        private void clearSecrets() {
+            for (final AuthCredentials ac : credentials.values()) {
+                if(ac != null) {
+                    ac.clearSecrets();
+                }
+            }
+        }
+    }
 }
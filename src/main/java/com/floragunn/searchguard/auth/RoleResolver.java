@@ -0,0 +1,147 @@
+/*
+ * Copyright 2017 floragunn GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.floragunn.searchguard.auth;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+
+import com.floragunn.searchguard.user.AuthCredentials;
+import com.floragunn.searchguard.user.User;
+
+/**
+ * Calls all configured authorization backends for a user.
+ * <p>
+ * The calls run in parallel on a bounded executor, so that a cache miss only takes as long as the slowest backend.
+ * Each backend has its own timeout (sg_config <code>searchguard.dynamic.authz.&lt;name&gt;.timeout_ms</code>), 
+ * a backend which fails or times out does not contribute roles, like a failing backend always did.
+ * Every backend fills its own copy of the user and only the roles of the backends which finished in time are
+ * added to the user, so a backend which answers too late can not modify the user after it was sealed.
+ */
+final class RoleResolver {
+
+    public static final long DEFAULT_TIMEOUT_MS = 10000;
+
+    private static final ESLogger log = Loggers.getLogger(RoleResolver.class);
+
+    private final AuthorizationBackend[] authorizers;
+    private final long[] timeoutsMs;
+    private final ExecutorService executor;
+
+    RoleResolver(final List<AuthorizationBackend> authorizers, final List<Long> timeoutsMs, final ExecutorService executor) {
+        this.authorizers = authorizers.toArray(new AuthorizationBackend[authorizers.size()]);
+        this.timeoutsMs = new long[timeoutsMs.size()];
+        for (int i = 0; i < this.timeoutsMs.length; i++) {
+            this.timeoutsMs[i] = timeoutsMs.get(i);
+        }
+        this.executor = executor;
+    }
+
+    /**
+     * Adds the roles of all authorization backends to the (not yet sealed) user
+     * 
+     * @return false if at least one backend did not answer in time, the user then only has the roles of the other 
+     * backends and must not be cached
+     */
+    boolean fillRoles(final User user) {
+
+        if (authorizers.length == 0) {
+            return true;
+        }
+
+        if (executor == null) {
+            for (final AuthorizationBackend ab : authorizers) {
+                fillRoles(ab, user);
+            }
+            return true;
+        }
+
+        final long start = System.nanoTime();
+        final User[] copies = new User[authorizers.length];
+        final Future<?>[] futures = new Future<?>[authorizers.length];
+
+        for (int i = 0; i < futures.length; i++) {
+            copies[i] = user.unsealedCopy();
+            final FutureTask<Void> task = newTask(authorizers[i], copies[i]);
+            try {
+                executor.execute(task);
+            } catch (final RejectedExecutionException e) {
+                //pool is saturated, do it ourselves (without timeout)
+                task.run();
+            }
+            futures[i] = task;
+        }
+
+        boolean complete = true;
+
+        for (int i = 0; i < futures.length; i++) {
+            final long remainingMs = timeoutsMs[i] - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            try {
+                futures[i].get(Math.max(0, remainingMs), TimeUnit.MILLISECONDS);
+                user.addRoles(copies[i].getRoles());
+            } catch (final TimeoutException e) {
+                futures[i].cancel(true);
+                complete = false;
+                log.error("Timeout after {} ms retrieving roles for {} from {}", timeoutsMs[i], user, authorizers[i].getClass());
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                futures[i].cancel(true);
+                complete = false;
+                log.error("Interrupted while retrieving roles for {} from {}", user, authorizers[i].getClass());
+            } catch (final ExecutionException e) {
+                //already logged in the task
+            }
+        }
+
+        return complete;
+    }
+
+    private static FutureTask<Void> newTask(final AuthorizationBackend ab, final User user) {
+        return new FutureTask<Void>(new Runnable() {
+            @Override
+            public void run() {
+                fillRoles(ab, user);
+            }
+        }, null);
+    }
+
+    private static void fillRoles(final AuthorizationBackend ab, final User user) {
+
+        // TODO transform username
+
+        try {
+            ab.fillRoles(user, new AuthCredentials(user.getName()));
+        } catch (Exception e) {
+            log.error("Problems retrieving roles for {} from {}", user, ab.getClass());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "RoleResolver [authorizers=" + authorizers.length + "]";
+    }
+}
@@ -0,0 +1,414 @@
+/*
+ * Copyright 2017 floragunn GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.floragunn.searchguard.auth;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.settings.Settings;
+
+import com.floragunn.searchguard.user.AuthCredentials;
+import com.floragunn.searchguard.user.User;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * Bounded cache for authenticated users of one auth domain.
+ * <p>
+ * Configured per auth domain in sg_config:
+ * <pre>
+ * searchguard.dynamic.authc.&lt;domain&gt;.cache:
+ *   max_size: 10000                  # max number of cached users
+ *   ttl_minutes: 60                  # expire after write
+ *   refresh_after_write_minutes: 0   # reload (re-authenticate and re-authorize) in the background after this time, 0 disables
+ *   max_staleness_minutes: 0         # how long an entry may be served after ttl while it is reloaded in the background
+ *   negative_ttl_seconds: 5          # how long a failed authentication is remembered, 0 disables
+ *   record_stats: true               # collect hit/miss/load/eviction statistics
+ * </pre>
+ * If refresh ahead is enabled (refresh_after_write_minutes or max_staleness_minutes greater 0) an entry which is older 
+ * than refresh_after_write_minutes (or ttl_minutes if not set) is still returned but reloaded asynchronously on the
+ * refresh executor. Entries are dropped at the latest after ttl_minutes + max_staleness_minutes, then the next request 
+ * blocks on the backends again.
+ * <p>
+ * Concurrent requests for the same key wait for one load instead of each calling the backends. A failed load is 
+ * remembered for negative_ttl_seconds so that a burst of requests (e.g. a Kibana dashboard) for a user which is
+ * not known to this domain or has a wrong password does not hit the backends again and again.
+ * A loader can throw {@link UncachedUserException} to hand out a user for the current request only, e.g. if not 
+ * all authorization backends answered in time.
+ */
+public final class UserCache<K> {
+
+    public static final int DEFAULT_MAX_SIZE = 10000;
+    public static final int DEFAULT_TTL_MINUTES = 60;
+    public static final int DEFAULT_NEGATIVE_TTL_SECONDS = 5;
+
+    private static final ESLogger log = Loggers.getLogger(UserCache.class);
+
+    private final String name;
+    private final boolean recordStats;
+    private final Cache<K, Entry> cache;
+    //recently failed loads, null if disabled
+    private final Cache<K, Throwable> failures;
+    private final AtomicLong negativeHitCount = new AtomicLong();
+    private final Executor refreshExecutor;
+    private final Ticker ticker;
+    //entries older than this are reloaded in the background, Long.MAX_VALUE if refresh ahead is disabled
+    private final long refreshAfterNanos;
+    private final AtomicLong refreshCount = new AtomicLong();
+    private final AtomicLong refreshFailureCount = new AtomicLong();
+    private final AtomicLong refreshRejectedCount = new AtomicLong();
+
+    UserCache(final String name, final Settings cacheSettings) {
+        this(name, cacheSettings, null);
+    }
+    
+    /**
+     * @param refreshExecutor executor for background reloads, if null refresh ahead is disabled
+     */
+    UserCache(final String name, final Settings cacheSettings, final Executor refreshExecutor) {
+        this(name, cacheSettings, refreshExecutor, Ticker.systemTicker());
+    }
+    
+    UserCache(final String name, final Settings cacheSettings, final Executor refreshExecutor, final Ticker ticker) {
+        this.name = name;
+        this.recordStats = cacheSettings.getAsBoolean("record_stats", true);
+        this.ticker = ticker;
+
+        final int maxSize = cacheSettings.getAsInt("max_size", DEFAULT_MAX_SIZE);
+        final int ttlMinutes = cacheSettings.getAsInt("ttl_minutes", DEFAULT_TTL_MINUTES);
+        final int refreshMinutes = cacheSettings.getAsInt("refresh_after_write_minutes", 0);
+        final int maxStalenessMinutes = cacheSettings.getAsInt("max_staleness_minutes", 0);
+        
+        if(refreshExecutor != null && (refreshMinutes > 0 || maxStalenessMinutes > 0)) {
+            this.refreshExecutor = refreshExecutor;
+            this.refreshAfterNanos = TimeUnit.MINUTES.toNanos(refreshMinutes > 0 ? Math.min(refreshMinutes, ttlMinutes) : ttlMinutes);
+        } else {
+            if(refreshMinutes > 0 || maxStalenessMinutes > 0) {
+                log.warn("No refresh executor available for user cache {}, refresh ahead is disabled", name);
+            }
+            this.refreshExecutor = null;
+            this.refreshAfterNanos = Long.MAX_VALUE;
+        }
+
+        final CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .ticker(ticker)
+                .expireAfterWrite(this.refreshExecutor == null ? ttlMinutes : ttlMinutes + maxStalenessMinutes, TimeUnit.MINUTES);
+
+        if (recordStats) {
+            builder.recordStats();
+        }
+        
+        final int negativeTtlSeconds = cacheSettings.getAsInt("negative_ttl_seconds", DEFAULT_NEGATIVE_TTL_SECONDS);
+        
+        if(negativeTtlSeconds > 0) {
+            this.failures = CacheBuilder.newBuilder()
+                    .maximumSize(maxSize)
+                    .ticker(ticker)
+                    .expireAfterWrite(negativeTtlSeconds, TimeUnit.SECONDS)
+                    .build();
+        } else {
+            this.failures = null;
+        }
+
+        this.cache = builder.removalListener(new RemovalListener<K, Entry>() {
+            @Override
+            public void onRemoval(final RemovalNotification<K, Entry> notification) {
+                if (log.isDebugEnabled() && notification.getCause() != RemovalCause.REPLACED) {
+                    final Entry entry = notification.getValue();
+                    log.debug("Clear user cache {} for {} due to {}", UserCache.this.name, entry == null ? null : entry.user, notification.getCause());
+                }
+            }
+        }).build();
+    }
+
+    /**
+     * @param loader authenticates and authorizes the user. Called synchronously if there is no entry for the key
+     * or on the refresh executor if the entry is due for a refresh. Must therefore not rely on state (like credentials) 
+     * which is cleared after the request, unless it is a {@link RefreshableLoader}.
+     * @throws ExecutionException or {@link UncheckedExecutionException} if the loader failed now or recently
+     */
+    public User get(final K key, final Callable<User> loader) throws ExecutionException {
+        
+        if(failures != null) {
+            final Throwable failure = failures.getIfPresent(key);
+            if(failure != null) {
+                negativeHitCount.incrementAndGet();
+                if (failure instanceof Exception && !(failure instanceof RuntimeException)) {
+                    throw new ExecutionException(failure);
+                }
+                throw new UncheckedExecutionException(failure);
+            }
+        }
+        
+        final Entry entry;
+        
+        try {
+            entry = cache.get(key, new Callable<Entry>() {
+                @Override
+                public Entry call() throws Exception {
+                    return new Entry(loader.call(), ticker.read());
+                }
+            });
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof UncachedUserException) {
+                return ((UncachedUserException) e.getCause()).getUser();
+            }
+            rememberFailure(key, e.getCause());
+            throw e;
+        } catch (final UncheckedExecutionException e) {
+            rememberFailure(key, e.getCause());
+            throw e;
+        }
+        
+        if(refreshExecutor != null && ticker.read() - entry.loadedAt >= refreshAfterNanos) {
+            refresh(key, entry, loader);
+        }
+        
+        return entry.user;
+    }
+
+    private void rememberFailure(final K key, final Throwable cause) {
+        if(failures != null && cause != null) {
+            failures.put(key, cause);
+        }
+    }
+    
+    private void refresh(final K key, final Entry entry, final Callable<User> requestLoader) {
+        
+        if(!entry.refreshing.compareAndSet(false, true)) {
+            //already scheduled
+            return;
+        }
+        
+        //request state is only copied if a refresh is actually scheduled
+        final Callable<User> loader = requestLoader instanceof RefreshableLoader ? ((RefreshableLoader) requestLoader).copyForRefresh() : requestLoader;
+        
+        try {
+            refreshExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        final User user = loader.call();
+                        
+                        if(user != null && cache.asMap().replace(key, entry, new Entry(user, ticker.read()))) {
+                            refreshCount.incrementAndGet();
+                            
+                            if(log.isDebugEnabled()) {
+                                log.debug("Refreshed {} in user cache {}", user.getName(), name);
+                            }
+                        } else {
+                            //entry was invalidated or replaced in the meantime, do not resurrect it
+                            entry.refreshing.set(false);
+                        }
+                    } catch (final Exception e) {
+                        refreshFailureCount.incrementAndGet();
+                        //stale entry is served further until it expires, next access will try again
+                        entry.refreshing.set(false);
+                        log.warn("Unable to refresh user {} in user cache {} due to {}", key, name, e.toString());
+                    } finally {
+                        release(loader);
+                    }
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            release(loader);
+            refreshRejectedCount.incrementAndGet();
+            entry.refreshing.set(false);
+            
+            if(log.isDebugEnabled()) {
+                log.debug("Refresh of user cache {} rejected, serve stale entry", name);
+            }
+        }
+    }
+    
+    private static void release(final Callable<User> loader) {
+        if(loader instanceof RefreshableLoader) {
+            ((RefreshableLoader) loader).release();
+        }
+    }
+    
+    /**
+     * @return true if there is an entry for the key, does not count as hit or miss
+     */
+    public boolean contains(final K key) {
+        return cache.asMap().containsKey(key);
+    }
+    
+    public User getIfPresent(final K key) {
+        final Entry entry = cache.getIfPresent(key);
+        return entry == null ? null : entry.user;
+    }
+
+    public void invalidate(final K key) {
+        cache.invalidate(key);
+        if(failures != null) {
+            failures.invalidate(key);
+        }
+    }
+
+    /**
+     * Remove all entries (and remembered failures) for the given user names
+     */
+    public void invalidateUsers(final Set<String> usernames) {
+        
+        final Iterator<Map.Entry<K, Entry>> it = cache.asMap().entrySet().iterator();
+        while (it.hasNext()) {
+            final Map.Entry<K, Entry> e = it.next();
+            if (usernames.contains(e.getValue().user.getName()) || usernames.contains(username(e.getKey()))) {
+                it.remove();
+            }
+        }
+        
+        if (failures != null) {
+            final Iterator<K> fit = failures.asMap().keySet().iterator();
+            while (fit.hasNext()) {
+                if (usernames.contains(username(fit.next()))) {
+                    fit.remove();
+                }
+            }
+        }
+    }
+    
+    private static String username(final Object key) {
+        if (key instanceof AuthCredentials) {
+            return ((AuthCredentials) key).getUsername();
+        }
+        
+        return key instanceof String ? (String) key : null;
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+        if(failures != null) {
+            failures.invalidateAll();
+        }
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isRecordStats() {
+        return recordStats;
+    }
+    
+    /**
+     * @return true if entries are reloaded in the background before they expire
+     */
+    public boolean isRefreshAhead() {
+        return refreshExecutor != null;
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+    
+    /**
+     * @return number of requests answered with a remembered failure
+     */
+    public long getNegativeHitCount() {
+        return negativeHitCount.get();
+    }
+    
+    public long getRefreshCount() {
+        return refreshCount.get();
+    }
+
+    public long getRefreshFailureCount() {
+        return refreshFailureCount.get();
+    }
+
+    public long getRefreshRejectedCount() {
+        return refreshRejectedCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "UserCache [name=" + name + ", size=" + cache.size() + ", refreshAhead=" + isRefreshAhead() + "]";
+    }
+    
+    /**
+     * A loader which depends on state of the current request (like credentials) which is cleared after the request.
+     */
+    public interface RefreshableLoader extends Callable<User> {
+        
+        /**
+         * Called on the request thread, and only if a background refresh is scheduled for an existing entry
+         * 
+         * @return a loader with its own copy of the request state, {@link #release()} is called on it after the refresh
+         */
+        RefreshableLoader copyForRefresh();
+        
+        /**
+         * Clear the (copied) request state, e.g. the secrets of the credentials
+         */
+        void release();
+    }
+    
+    /**
+     * Thrown by a loader if the user is valid for the current request but must not be cached.
+     * A background refresh which ends with this exception keeps the stale entry.
+     */
+    public static final class UncachedUserException extends Exception {
+
+        private static final long serialVersionUID = 1L;
+        private final User user;
+
+        public UncachedUserException(final User user, final String message) {
+            super(message, null, false, false);
+            this.user = user;
+        }
+
+        public User getUser() {
+            return user;
+        }
+    }
+    
+    private static final class Entry {
+        
+        private final User user;
+        private final long loadedAt;
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+        
+        private Entry(final User user, final long loadedAt) {
+            this.user = user;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
@@ -17,7 +17,18 @@
 
 package com.floragunn.searchguard.auth.internal;
 
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
 
 import org.elasticsearch.ElasticsearchSecurityException;
 import org.elasticsearch.common.inject.Inject;
@@ -28,17 +39,42 @@ import com.floragunn.searchguard.auth.AuthenticationBackend;
 import com.floragunn.searchguard.configuration.ConfigChangeListener;
 import com.floragunn.searchguard.configuration.ConfigurationService;
 import com.floragunn.searchguard.crypto.BCrypt;
+import com.floragunn.searchguard.support.ConfigConstants;
 import com.floragunn.searchguard.user.AuthCredentials;
 import com.floragunn.searchguard.user.User;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashCode;
 
 public class InternalAuthenticationBackend implements AuthenticationBackend, ConfigChangeListener {
 
-    private volatile Settings br;
+    //user name or alias to precomputed entry, rebuilt on config change
+    private volatile Map<String, InternalUser> users;
+    //HMAC of successfully verified (user name, password, stored hash), null if disabled. 
+    //Survives config changes because a changed hash gives another key.
+    private final Cache<HashCode, Boolean> verifiedPasswords;
+    //random per node, so the cache content is useless outside this jvm
+    private final SecretKeySpec verifiedPasswordsKey;
 
     @Inject
-    public InternalAuthenticationBackend(final Settings unused, final TransportConfigUpdateAction tcua) {
+    public InternalAuthenticationBackend(final Settings settings, final TransportConfigUpdateAction tcua) {
         super();
         tcua.addConfigChangeListener(ConfigurationService.CONFIGNAME_INTERNAL_USERS, this);
+        
+        final int maxSize = settings.getAsInt(ConfigConstants.SG_INTERNAL_PASSWORD_CACHE_MAX_SIZE, 10000);
+        
+        if(maxSize > 0) {
+            final byte[] key = new byte[32];
+            new SecureRandom().nextBytes(key);
+            verifiedPasswordsKey = new SecretKeySpec(key, "HmacSHA256");
+            verifiedPasswords = CacheBuilder.newBuilder()
+                    .maximumSize(maxSize)
+                    .expireAfterWrite(settings.getAsInt(ConfigConstants.SG_INTERNAL_PASSWORD_CACHE_TTL_MINUTES, 60), TimeUnit.MINUTES)
+                    .build();
+        } else {
+            verifiedPasswordsKey = null;
+            verifiedPasswords = null;
+        }
     }
 
     @Override
@@ -47,29 +83,13 @@ public class InternalAuthenticationBackend implements AuthenticationBackend, Con
             return false;
         }
         
-        String hashed = br.get(user.getName() + ".hash");
+        final InternalUser internalUser = users.get(user.getName());
 
-        if (hashed == null) {
-            
-            for(String username:br.names()) {
-                String u = br.get(username + ".username");
-                if(user.getName().equals(u)) {
-                    hashed = br.get(username+ ".hash");
-                    break;
-                }
-            }
-            
-            if(hashed == null) {
-                return false;
-            }
-        }
-        
-        final String[] roles = br.getAsArray(user.getName() + ".roles", new String[0]);
-        
-        if(roles != null) {
-            user.addRoles(Arrays.asList(roles));
+        if (internalUser == null) {
+            return false;
         }
         
+        user.addRoles(internalUser.roles);
         return true;
     }
     
@@ -79,21 +99,10 @@ public class InternalAuthenticationBackend implements AuthenticationBackend, Con
             throw new ElasticsearchSecurityException("Internal authentication backend not configured. May be Search Guard is not initialized. See https://github.com/floragunncom/search-guard-docs/blob/master/sgadmin.md");
         }
 
-        String hashed = br.get(credentials.getUsername() + ".hash");
+        final InternalUser internalUser = users.get(credentials.getUsername());
 
-        if (hashed == null) {
-            
-            for(String username:br.names()) {
-                String u = br.get(username + ".username");
-                if(credentials.getUsername().equals(u)) {
-                    hashed = br.get(username+ ".hash");
-                    break;
-                }
-            }
-            
-            if(hashed == null) {
-                throw new ElasticsearchSecurityException(credentials.getUsername() + " not found");
-            }
+        if (internalUser == null) {
+            throw new ElasticsearchSecurityException(credentials.getUsername() + " not found");
         }
         
         byte[] password = credentials.getPassword();
@@ -102,14 +111,54 @@ public class InternalAuthenticationBackend implements AuthenticationBackend, Con
             throw new ElasticsearchSecurityException("empty passwords not supported");
         }
         
-        if (BCrypt.checkpw(password, hashed)) {
-            final String[] roles = br.getAsArray(credentials.getUsername() + ".roles", new String[0]);
-            return new User(credentials.getUsername(), Arrays.asList(roles));
+        if (checkpw(credentials.getUsername(), password, internalUser.hash)) {
+            return new User(credentials.getUsername(), internalUser.roles);
         } else {
             throw new ElasticsearchSecurityException("password does not match");
         }
     }
 
+    private boolean checkpw(final String username, final byte[] password, final String hash) {
+        
+        if (verifiedPasswords == null) {
+            return BCrypt.checkpw(password, hash);
+        }
+        
+        final HashCode key = verifiedPasswordKey(username, password, hash);
+        
+        if (verifiedPasswords.getIfPresent(key) != null) {
+            return true;
+        }
+        
+        if (BCrypt.checkpw(password, hash)) {
+            verifiedPasswords.put(key, Boolean.TRUE);
+            return true;
+        }
+        
+        return false;
+    }
+    
+    private HashCode verifiedPasswordKey(final String username, final byte[] password, final String hash) {
+        try {
+            final Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(verifiedPasswordsKey);
+            //length prefixes make the concatenation unambiguous
+            final byte[] name = username.getBytes(StandardCharsets.UTF_8);
+            mac.update(intToBytes(name.length));
+            mac.update(name);
+            mac.update(intToBytes(password.length));
+            mac.update(password);
+            mac.update(hash.getBytes(StandardCharsets.UTF_8));
+            return HashCode.fromBytes(mac.doFinal());
+        } catch (final GeneralSecurityException e) {
+            throw new ElasticsearchSecurityException("Unable to compute password cache key", e);
+        }
+    }
+    
+    private static byte[] intToBytes(final int i) {
+        return new byte[] { (byte) (i >>> 24), (byte) (i >>> 16), (byte) (i >>> 8), (byte) i };
+    }
+
     @Override
     public String getType() {
         return "internal";
@@ -117,7 +166,36 @@ public class InternalAuthenticationBackend implements AuthenticationBackend, Con
 
     @Override
     public void onChange(final String event, final Settings settings) {
-        br = settings;
+        users = index(settings);
+    }
+    
+    /**
+     * Index all users by name and by their username alias. A direct &lt;name&gt;.hash always wins over an alias,
+     * roles are taken from &lt;name&gt;.roles of the name used to log in (like before for aliases).
+     */
+    private static Map<String, InternalUser> index(final Settings settings) {
+        final Map<String, InternalUser> users = new HashMap<String, InternalUser>();
+        
+        for (final String name : settings.names()) {
+            final String hash = settings.get(name + ".hash");
+            if (hash != null) {
+                users.put(name, new InternalUser(hash, roles(settings, name)));
+            }
+        }
+        
+        for (final String name : settings.names()) {
+            final String alias = settings.get(name + ".username");
+            final String hash = settings.get(name + ".hash");
+            if (alias != null && hash != null && !users.containsKey(alias)) {
+                users.put(alias, new InternalUser(hash, roles(settings, alias)));
+            }
+        }
+        
+        return Collections.unmodifiableMap(users);
+    }
+    
+    private static List<String> roles(final Settings settings, final String name) {
+        return Collections.unmodifiableList(Arrays.asList(settings.getAsArray(name + ".roles", new String[0])));
     }
 
     @Override
@@ -128,6 +206,17 @@ public class InternalAuthenticationBackend implements AuthenticationBackend, Con
 
     @Override
     public boolean isInitialized() {
-        return br != null;
+        return users != null;
+    }
+    
+    private static final class InternalUser {
+        
+        private final String hash;
+        private final List<String> roles;
+        
+        private InternalUser(final String hash, final List<String> roles) {
+            this.hash = hash;
+            this.roles = roles;
+        }
     }
 }
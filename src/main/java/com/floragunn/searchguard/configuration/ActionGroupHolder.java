@@ -35,6 +35,13 @@ public class ActionGroupHolder implements ConfigChangeListener {
     public ActionGroupHolder(final TransportConfigUpdateAction tcua) {
         tcua.addConfigChangeListener(ConfigurationService.CONFIGNAME_ACTION_GROUPS, this);
     }
+    
+    /**
+     * Holder which is not registered for config changes, e.g. to compile roles in unit tests
+     */
+    ActionGroupHolder(final Settings actionGroups) {
+        this.actionGroups = actionGroups;
+    }
 
     @Override
     public void onChange(final String event, final Settings settings) {
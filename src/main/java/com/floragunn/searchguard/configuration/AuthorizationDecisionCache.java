@@ -0,0 +1,218 @@
+/*
+ * Copyright 2017 floragunn GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.floragunn.searchguard.configuration;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import org.elasticsearch.cluster.metadata.MetaData;
+
+import com.floragunn.searchguard.configuration.PrivilegesEvaluator.IndexType;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+
+/**
+ * Caches the outcome of the role evaluation in {@link PrivilegesEvaluator} for a given
+ * combination of mapped sg roles, action and requested indices/types.
+ * <p>
+ * Entries are keyed by the compiled roles instance and the cluster metadata version, and the whole cache
+ * is invalidated when the roles, role mappings, action groups, config or the cluster metadata change.
+ * The cache is bounded by the number of index and type names held by its entries rather than by the number of entries
+ * because a single request can name thousands of indices.
+ */
+final class AuthorizationDecisionCache {
+
+    private final Cache<Key, Decision> cache;
+    private volatile long metaDataVersion = -1;
+    private volatile String clusterUUID;
+
+    AuthorizationDecisionCache(final long maxIndices) {
+        this.cache = maxIndices > 0 ? CacheBuilder.newBuilder()
+                .maximumWeight(maxIndices)
+                .weigher(new Weigher<Key, Decision>() {
+                    @Override
+                    public int weigh(final Key key, final Decision value) {
+                        return 1 + key.indices.size() + key.types.size() + value.leftovers.size();
+                    }
+                })
+                .concurrencyLevel(4)
+                .recordStats()
+                .<Key, Decision>build() : null;
+    }
+
+    boolean isEnabled() {
+        return cache != null;
+    }
+
+    Decision get(final Key key, final Callable<Decision> loader) {
+
+        if (cache == null) {
+            try {
+                return loader.call();
+            } catch (final Exception e) {
+                throw propagate(e);
+            }
+        }
+
+        try {
+            return cache.get(key, loader);
+        } catch (final ExecutionException e) {
+            throw propagate(e.getCause());
+        }
+    }
+
+    /**
+     * Invalidate all entries if the cluster metadata has changed since the last call
+     */
+    void checkMetaData(final MetaData metaData) {
+        if (cache != null && (metaData.version() != metaDataVersion || !metaData.clusterUUID().equals(clusterUUID))) {
+            synchronized (this) {
+                if (metaData.version() != metaDataVersion || !metaData.clusterUUID().equals(clusterUUID)) {
+                    cache.invalidateAll();
+                    metaDataVersion = metaData.version();
+                    clusterUUID = metaData.clusterUUID();
+                }
+            }
+        }
+    }
+
+    void invalidateAll() {
+        if (cache != null) {
+            cache.invalidateAll();
+        }
+    }
+
+    CacheStats stats() {
+        return cache == null ? new CacheStats(0, 0, 0, 0, 0, 0) : cache.stats();
+    }
+
+    private static RuntimeException propagate(final Throwable e) {
+        if (e instanceof RuntimeException) {
+            return (RuntimeException) e;
+        }
+        if (e instanceof Error) {
+            throw (Error) e;
+        }
+        return new RuntimeException(e);
+    }
+
+    static final class Key {
+
+        private final SgRoles compiledRoles;
+        private final Set<String> sgRoles;
+        private final String action;
+        private final Set<String> indices;
+        private final Set<String> types;
+        private final String userName;
+        private final boolean compositeEnabled;
+        private final long metaDataVersion;
+        private final int hashCode;
+
+        /**
+         * @param userName only needed if one of the roles contains user specific patterns or dls queries, otherwise null
+         */
+        Key(final SgRoles compiledRoles, final Set<String> sgRoles, final String action, final Set<String> indices, final Set<String> types,
+                final String userName, final boolean compositeEnabled, final long metaDataVersion) {
+            this.compiledRoles = compiledRoles;
+            this.sgRoles = sgRoles;
+            this.action = action;
+            this.indices = indices;
+            this.types = types;
+            this.userName = userName;
+            this.compositeEnabled = compositeEnabled;
+            this.metaDataVersion = metaDataVersion;
+
+            int result = System.identityHashCode(compiledRoles);
+            result = 31 * result + sgRoles.hashCode();
+            result = 31 * result + action.hashCode();
+            result = 31 * result + indices.hashCode();
+            result = 31 * result + types.hashCode();
+            result = 31 * result + (userName == null ? 0 : userName.hashCode());
+            result = 31 * result + (compositeEnabled ? 1 : 0);
+            result = 31 * result + (int) (metaDataVersion ^ (metaDataVersion >>> 32));
+            this.hashCode = result;
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return hashCode == other.hashCode
+                    && compiledRoles == other.compiledRoles
+                    && compositeEnabled == other.compositeEnabled
+                    && metaDataVersion == other.metaDataVersion
+                    && action.equals(other.action)
+                    && (userName == null ? other.userName == null : userName.equals(other.userName))
+                    && sgRoles.equals(other.sgRoles)
+                    && indices.equals(other.indices)
+                    && types.equals(other.types);
+        }
+    }
+
+    /**
+     * Immutable result of the role evaluation
+     */
+    static final class Decision {
+
+        private final boolean allowed;
+        private final String dlsQueriesHeader;
+        private final String flsFieldsHeader;
+        private final Set<IndexType> leftovers;
+
+        /**
+         * @param dlsQueriesHeader serialized dls queries or null if there are none
+         * @param flsFieldsHeader serialized fls fields or null if there are none
+         */
+        Decision(final boolean allowed, final String dlsQueriesHeader, final String flsFieldsHeader, final Set<IndexType> leftovers) {
+            this.allowed = allowed;
+            this.dlsQueriesHeader = dlsQueriesHeader;
+            this.flsFieldsHeader = flsFieldsHeader;
+            this.leftovers = Collections.unmodifiableSet(leftovers);
+        }
+
+        boolean isAllowed() {
+            return allowed;
+        }
+
+        String getDlsQueriesHeader() {
+            return dlsQueriesHeader;
+        }
+
+        String getFlsFieldsHeader() {
+            return flsFieldsHeader;
+        }
+
+        Set<IndexType> getLeftovers() {
+            return leftovers;
+        }
+    }
+}
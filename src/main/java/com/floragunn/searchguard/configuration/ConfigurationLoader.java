@@ -20,6 +20,8 @@ package com.floragunn.searchguard.configuration;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -41,6 +43,8 @@ import org.elasticsearch.common.settings.loader.JsonSettingsLoader;
 import org.elasticsearch.common.xcontent.XContentHelper;
 
 import com.floragunn.searchguard.support.ConfigConstants;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
 
 public class ConfigurationLoader {
 
@@ -48,6 +52,8 @@ public class ConfigurationLoader {
     private final Provider<Client> client;
 
     private final String searchguardIndex;
+    //last parsed document per config type, reused as long as the source is byte-identical
+    private final ConcurrentMap<String, LoadedConfig> loaded = new ConcurrentHashMap<String, LoadedConfig>();
     
     @Inject
     public ConfigurationLoader(final Provider<Client> client, final Settings settings) {
@@ -128,7 +134,8 @@ public class ConfigurationLoader {
                         GetResponse singleGetResponse = singleResponse.getResponse();
                         if(singleGetResponse.isExists() && !singleGetResponse.isSourceEmpty()) {
                             //success
-                            final Settings _settings = toSettings(singleGetResponse.getSourceAsBytesRef(), singleGetResponse.getType());
+                            final Settings _settings = toSettings(singleGetResponse.getSourceAsBytesRef(), singleGetResponse.getType(), 
+                                    singleGetResponse.getVersion());
                             if(_settings != null) {
                                 callback.success(singleGetResponse.getType(), _settings);
                             }
@@ -151,18 +158,46 @@ public class ConfigurationLoader {
         });
     }
 
-    private Settings toSettings(final BytesReference ref, String type) {
+    /**
+     * @return the parsed settings, the same instance as last time if the content did not change
+     */
+    Settings toSettings(final BytesReference ref, final String type, final long version) {
         if (ref == null || ref.length() == 0) {
             log.error("Null or empty BytesReference for "+type);
             return null;
         }
+        
+        final HashCode hash = Hashing.murmur3_128().hashBytes(ref.toBytes());
+        final LoadedConfig previous = loaded.get(type);
+        
+        if (previous != null && previous.hash.equals(hash)) {
+            if (log.isDebugEnabled()) {
+                log.debug("Content of {} unchanged (version {}, previous version {}), skip parsing", type, version, previous.version);
+            }
+            return previous.settings;
+        }
 
         try {
-            return Settings.builder().put(new JsonSettingsLoader().load(XContentHelper.createParser(ref))).build();
+            final Settings settings = Settings.builder().put(new JsonSettingsLoader().load(XContentHelper.createParser(ref))).build();
+            loaded.put(type, new LoadedConfig(version, hash, settings));
+            return settings;
         } catch (final Exception e) {
             log.error("Unable to parse {} due to {}",e, type, e.toString());
             return null;
         }
     }
+    
+    private static final class LoadedConfig {
+        
+        private final long version;
+        private final HashCode hash;
+        private final Settings settings;
+        
+        private LoadedConfig(final long version, final HashCode hash, final Settings settings) {
+            this.version = version;
+            this.hash = hash;
+            this.settings = settings;
+        }
+    }
 
 }
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2017 floragunn GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.floragunn.searchguard.configuration;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.lucene.util.FixedBitSet;
+import org.elasticsearch.cluster.metadata.AliasMetaData;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.cluster.metadata.MetaData;
+import org.elasticsearch.common.regex.Regex;
+
+import com.floragunn.searchguard.support.WildcardMatcher;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Maps every concrete index of one version of the cluster metadata to an ordinal, so that sets of indices
+ * can be handled as bitsets.
+ * <p>
+ * The ordinals of the indices matching a wildcard pattern are computed once per pattern and metadata version.
+ * All returned bitsets of this class are shared and must not be modified. Also knows which indices are open
+ * and the names of all aliases.
+ */
+final class IndexOrdinals {
+
+    private static final int MAX_CACHED_PATTERNS = 10000;
+
+    private final String[] indices;
+    private final Map<String, Integer> ordinals;
+    private final FixedBitSet empty;
+    private final FixedBitSet open;
+    private final String[] aliases;
+    private final boolean filteredAliases;
+    private final Cache<String, FixedBitSet> wildcardPatterns = CacheBuilder.newBuilder()
+            .maximumSize(MAX_CACHED_PATTERNS)
+            .<String, FixedBitSet>build();
+    //request expressions are cached separately, so they can not evict role patterns
+    private final Cache<String, FixedBitSet> expressions = CacheBuilder.newBuilder()
+            .maximumSize(MAX_CACHED_PATTERNS)
+            .<String, FixedBitSet>build();
+    private final Cache<String, Boolean> aliasExpressions = CacheBuilder.newBuilder()
+            .maximumSize(MAX_CACHED_PATTERNS)
+            .<String, Boolean>build();
+
+    IndexOrdinals(final MetaData metaData) {
+        this.indices = metaData.concreteAllIndices();
+        this.ordinals = new HashMap<String, Integer>(indices.length * 4 / 3 + 1);
+        for (int i = 0; i < indices.length; i++) {
+            ordinals.put(indices[i], i);
+        }
+        this.empty = new FixedBitSet(indices.length);
+        this.open = new FixedBitSet(indices.length);
+
+        final Set<String> aliases = new HashSet<String>();
+        boolean filteredAliases = false;
+
+        for (int i = 0; i < indices.length; i++) {
+            final IndexMetaData indexMetaData = metaData.index(indices[i]);
+
+            if (indexMetaData == null) {
+                continue;
+            }
+
+            if (indexMetaData.getState() == IndexMetaData.State.OPEN) {
+                open.set(i);
+            }
+
+            for (final Iterator<AliasMetaData> it = indexMetaData.getAliases().valuesIt(); it.hasNext();) {
+                final AliasMetaData aliasMetaData = it.next();
+                aliases.add(aliasMetaData.alias());
+                filteredAliases |= aliasMetaData.filteringRequired();
+            }
+        }
+
+        this.aliases = aliases.toArray(new String[aliases.size()]);
+        this.filteredAliases = filteredAliases;
+    }
+
+    int size() {
+        return indices.length;
+    }
+
+    /**
+     * @return the ordinal of the index or -1 if it is not a concrete index of this metadata version
+     */
+    int ordinal(final String index) {
+        final Integer ordinal = ordinals.get(index);
+        return ordinal == null ? -1 : ordinal.intValue();
+    }
+
+    String index(final int ordinal) {
+        return indices[ordinal];
+    }
+
+    FixedBitSet empty() {
+        return empty;
+    }
+
+    /**
+     * @return the ordinals of all open indices
+     */
+    FixedBitSet open() {
+        return open;
+    }
+
+    /**
+     * @return true if at least one alias of this metadata version has a filter
+     */
+    boolean hasFilteredAliases() {
+        return filteredAliases;
+    }
+
+    /**
+     * @return true if the request index expression (simple <code>*</code> wildcards) matches the name of at least one alias
+     */
+    boolean expressionMatchesAlias(final String expression) {
+        Boolean matches = aliasExpressions.getIfPresent(expression);
+
+        if (matches == null) {
+            matches = Boolean.FALSE;
+
+            for (int i = 0; i < aliases.length; i++) {
+                if (Regex.simpleMatch(expression, aliases[i])) {
+                    matches = Boolean.TRUE;
+                    break;
+                }
+            }
+
+            aliasExpressions.put(expression, matches);
+        }
+
+        return matches.booleanValue();
+    }
+
+    /**
+     * @return the ordinals of all concrete indices matching the request index expression (simple <code>*</code> wildcards)
+     */
+    FixedBitSet matchingExpression(final String expression) {
+        FixedBitSet bits = expressions.getIfPresent(expression);
+
+        if (bits == null) {
+            bits = new FixedBitSet(indices.length);
+
+            for (int i = 0; i < indices.length; i++) {
+                if (Regex.simpleMatch(expression, indices[i])) {
+                    bits.set(i);
+                }
+            }
+
+            expressions.put(expression, bits);
+        }
+
+        return bits;
+    }
+
+    /**
+     * @return the ordinals of all concrete indices matching the wildcard pattern of a role
+     */
+    FixedBitSet matching(final String pattern) {
+        FixedBitSet bits = wildcardPatterns.getIfPresent(pattern);
+
+        if (bits == null) {
+            final WildcardMatcher matcher = WildcardMatcher.compile(pattern);
+            bits = new FixedBitSet(indices.length);
+
+            for (int i = 0; i < indices.length; i++) {
+                if (matcher.matches(indices[i])) {
+                    bits.set(i);
+                }
+            }
+
+            wildcardPatterns.put(pattern, bits);
+        }
+
+        return bits;
+    }
+
+    /**
+     * @return the ordinals of the given indices, names which are not concrete indices of this metadata version are ignored
+     */
+    FixedBitSet of(final String[] concreteIndices) {
+        final FixedBitSet bits = new FixedBitSet(indices.length);
+
+        for (int i = 0; i < concreteIndices.length; i++) {
+            final int ordinal = ordinal(concreteIndices[i]);
+            if (ordinal >= 0) {
+                bits.set(ordinal);
+            }
+        }
+
+        return bits;
+    }
+}
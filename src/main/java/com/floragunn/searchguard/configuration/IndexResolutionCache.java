@@ -0,0 +1,201 @@
+/*
+ * Copyright 2017 floragunn GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.floragunn.searchguard.configuration;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.elasticsearch.action.support.IndicesOptions;
+import org.elasticsearch.cluster.ClusterState;
+import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
+import org.elasticsearch.cluster.metadata.MetaData;
+
+import com.google.common.cache.AbstractCache.SimpleStatsCounter;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+
+/**
+ * Caches the concrete indices an index expression resolves to for one version of the cluster metadata.
+ * <p>
+ * All entries belong to a generation which is bound to the metadata version and cluster uuid. When a
+ * request is evaluated against newer metadata the whole generation is replaced at once, so results of
+ * different metadata versions are never mixed. The returned arrays are shared and must not be modified.
+ * <p>
+ * A generation also holds the {@link IndexOrdinals} of its metadata version.
+ */
+final class IndexResolutionCache {
+
+    private final IndexNameExpressionResolver resolver;
+    private final long maxIndices;
+    private final AtomicReference<Generation> generation = new AtomicReference<Generation>();
+    //stats of all generations
+    private final SimpleStatsCounter stats = new SimpleStatsCounter();
+
+    /**
+     * @param maxIndices max number of index names held by all cached arrays together, 0 disables the cache
+     */
+    IndexResolutionCache(final IndexNameExpressionResolver resolver, final long maxIndices) {
+        this.resolver = resolver;
+        this.maxIndices = maxIndices;
+    }
+
+    /**
+     * @see IndexNameExpressionResolver#concreteIndices(ClusterState, IndicesOptions, String...)
+     */
+    String[] concreteIndices(final ClusterState clusterState, final IndicesOptions options, final String... expressions) {
+
+        if (maxIndices <= 0 || containsDateMath(expressions)) {
+            //date math depends on the current time, not only on the metadata
+            return resolver.concreteIndices(clusterState, options, expressions);
+        }
+
+        final Generation gen = generation(clusterState.metaData());
+        final Key key = new Key(expressions, options);
+        final String[] cached = gen.cache.getIfPresent(key);
+
+        if (cached != null) {
+            stats.recordHits(1);
+            return cached;
+        }
+
+        stats.recordMisses(1);
+
+        final long start = System.nanoTime();
+        //exceptions (e.g. index not found) are not cached
+        final String[] resolved = resolver.concreteIndices(clusterState, options, expressions);
+        stats.recordLoadSuccess(System.nanoTime() - start);
+        gen.cache.put(key, resolved);
+        return resolved;
+    }
+
+    /**
+     * @return the index ordinals of the metadata of this cluster state
+     */
+    IndexOrdinals ordinals(final ClusterState clusterState) {
+        return generation(clusterState.metaData()).ordinals(clusterState.metaData());
+    }
+
+    private static boolean containsDateMath(final String[] expressions) {
+        if (expressions != null) {
+            for (int i = 0; i < expressions.length; i++) {
+                if (expressions[i] != null && expressions[i].startsWith("<")) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    CacheStats stats() {
+        return stats.snapshot();
+    }
+
+    private Generation generation(final MetaData metaData) {
+        for (;;) {
+            final Generation gen = generation.get();
+
+            if (gen != null && gen.matches(metaData)) {
+                return gen;
+            }
+
+            final Generation newGen = new Generation(metaData.version(), metaData.clusterUUID(), maxIndices);
+
+            if (gen != null && gen.metaDataVersion > newGen.metaDataVersion && gen.clusterUUID.equals(newGen.clusterUUID)) {
+                //evaluation against outdated metadata, do not replace the current generation
+                return newGen;
+            }
+
+            if (generation.compareAndSet(gen, newGen)) {
+                return newGen;
+            }
+        }
+    }
+
+    private static final class Generation {
+
+        private final long metaDataVersion;
+        private final String clusterUUID;
+        private final Cache<Key, String[]> cache;
+        private volatile IndexOrdinals ordinals;
+
+        private Generation(final long metaDataVersion, final String clusterUUID, final long maxIndices) {
+            this.metaDataVersion = metaDataVersion;
+            this.clusterUUID = clusterUUID;
+            this.cache = maxIndices <= 0 ? null : CacheBuilder.newBuilder()
+                    .maximumWeight(maxIndices)
+                    .weigher(new Weigher<Key, String[]>() {
+                        @Override
+                        public int weigh(final Key key, final String[] value) {
+                            return 1 + value.length;
+                        }
+                    })
+                    .<Key, String[]>build();
+        }
+
+        private IndexOrdinals ordinals(final MetaData metaData) {
+            IndexOrdinals result = ordinals;
+            if (result == null) {
+                synchronized (this) {
+                    result = ordinals;
+                    if (result == null) {
+                        ordinals = result = new IndexOrdinals(metaData);
+                    }
+                }
+            }
+            return result;
+        }
+
+        private boolean matches(final MetaData metaData) {
+            return metaDataVersion == metaData.version() && clusterUUID.equals(metaData.clusterUUID());
+        }
+    }
+
+    private static final class Key {
+
+        private final String[] expressions;
+        private final IndicesOptions options;
+        private final int hashCode;
+
+        private Key(final String[] expressions, final IndicesOptions options) {
+            this.expressions = expressions == null ? null : expressions.clone();
+            this.options = options;
+            this.hashCode = 31 * Arrays.hashCode(this.expressions) + (options == null ? 0 : options.hashCode());
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return hashCode == other.hashCode
+                    && (options == null ? other.options == null : options.equals(other.options))
+                    && Arrays.equals(expressions, other.expressions);
+        }
+    }
+}
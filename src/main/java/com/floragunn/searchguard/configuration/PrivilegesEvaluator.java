@@ -18,7 +18,6 @@
 package com.floragunn.searchguard.configuration;
 
 import java.io.Serializable;
-import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -30,7 +29,9 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
 
+import org.apache.lucene.util.FixedBitSet;
 import org.elasticsearch.ElasticsearchSecurityException;
 import org.elasticsearch.action.ActionRequest;
 import org.elasticsearch.action.CompositeIndicesRequest;
@@ -55,9 +56,9 @@ import org.elasticsearch.common.collect.Tuple;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.logging.ESLogger;
 import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.regex.Regex;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.transport.TransportAddress;
-import org.elasticsearch.transport.TransportRequest;
 
 import com.floragunn.searchguard.action.configupdate.TransportConfigUpdateAction;
 import com.floragunn.searchguard.auditlog.AuditLog;
@@ -65,32 +66,33 @@ import com.floragunn.searchguard.support.Base64Helper;
 import com.floragunn.searchguard.support.ConfigConstants;
 import com.floragunn.searchguard.support.WildcardMatcher;
 import com.floragunn.searchguard.user.User;
-import com.google.common.collect.ArrayListMultimap;
-import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.ListMultimap;
-import com.google.common.collect.Multimaps;
+import com.google.common.cache.CacheStats;
 import com.google.common.collect.Sets;
 import com.google.common.collect.UnmodifiableIterator;
 
 public class PrivilegesEvaluator implements ConfigChangeListener {
 
-    private static final Set<String> NULL_SET = Sets.newHashSet((String)null);
-    private final Set<String> DLSFLS = ImmutableSet.of("_dls_", "_fls_");
     protected final ESLogger log = Loggers.getLogger(this.getClass());
     private final ClusterService clusterService;
     private volatile Settings rolesMapping;
+    private volatile SgRoleMappings sgRoleMappings;
     private volatile Settings roles;
+    private volatile SgRoles sgRoles;
+    //only used to detect unchanged action groups
+    private volatile Settings actionGroups;
     private volatile Settings config;
+    private volatile boolean compositeEnabled;
     private final ActionGroupHolder ah;
     private final IndexNameExpressionResolver resolver;
-    private final Map<Class<?>, Method> typeCache = Collections.synchronizedMap(new HashMap<Class<?>, Method>(100));
-    private final Map<Class<?>, Method> typesCache = Collections.synchronizedMap(new HashMap<Class<?>, Method>(100));
     private final String[] deniedActionPatterns;
     private final AuditLog auditLog;
     private final static IndicesOptions DEFAULT_INDICES_OPTIONS = IndicesOptions.lenientExpandOpen();
 
     private final String searchguardIndex;
     private PrivilegesInterceptor privilegesInterceptor;
+    private final AuthorizationDecisionCache decisionCache;
+    private final IndexResolutionCache indexResolutionCache;
+    private final boolean compactSerialization;
     
     @Inject
     public PrivilegesEvaluator(final ClusterService clusterService, final TransportConfigUpdateAction tcua, final ActionGroupHolder ah,
@@ -100,12 +102,17 @@ public class PrivilegesEvaluator implements ConfigChangeListener {
         tcua.addConfigChangeListener(ConfigurationService.CONFIGNAME_ROLES_MAPPING, this);
         tcua.addConfigChangeListener(ConfigurationService.CONFIGNAME_ROLES, this);
         tcua.addConfigChangeListener(ConfigurationService.CONFIGNAME_CONFIG, this);
+        //action groups are already expanded when roles get compiled, so we need to recompile if they change
+        tcua.addConfigChangeListener(ConfigurationService.CONFIGNAME_ACTION_GROUPS, this);
         this.clusterService = clusterService;
         this.ah = ah;
         this.resolver = resolver;
         this.auditLog = auditLog;
         this.searchguardIndex = settings.get(ConfigConstants.SG_CONFIG_INDEX, ConfigConstants.SG_DEFAULT_CONFIG_INDEX);
         this.privilegesInterceptor = privilegesInterceptor;
+        this.compactSerialization = settings.getAsBoolean(ConfigConstants.SG_COMPACT_SERIALIZATION, false);
+        this.decisionCache = new AuthorizationDecisionCache(settings.getAsLong(ConfigConstants.SG_AUTHZ_DECISION_CACHE_MAX_INDICES, 100000L));
+        this.indexResolutionCache = new IndexResolutionCache(resolver, settings.getAsLong(ConfigConstants.SG_AUTHZ_INDEX_RESOLUTION_CACHE_MAX_INDICES, 1000000L));
         
         /*
         indices:admin/template/delete
@@ -151,23 +158,70 @@ public class PrivilegesEvaluator implements ConfigChangeListener {
     }
 
     @Override
-    public void onChange(final String event, final Settings settings) {
+    public synchronized void onChange(final String event, final Settings settings) {
+        
+        if (settings == current(event)) {
+            //the configuration loader returns the same instance for unchanged content
+            if (log.isDebugEnabled()) {
+                log.debug("{} unchanged, keep compiled roles and cached decisions", event);
+            }
+            return;
+        }
+        
+        decisionCache.invalidateAll();
+        
         switch (event) {
         case "roles":
             roles = settings;
+            sgRoles = SgRoles.compile(settings, ah);
+            break;
+        case "actiongroups":
+            actionGroups = settings;
+            //ActionGroupHolder was registered before us, so it already holds the new groups
+            if (roles != null) {
+                sgRoles = SgRoles.compile(roles, ah);
+            }
             break;
         case "rolesmapping":
             rolesMapping = settings;
+            sgRoleMappings = SgRoleMappings.compile(settings);
             break;
         case "config":
             config = settings;
+            compositeEnabled = settings.getAsBoolean("searchguard.dynamic.composite_enabled", false);
             break;
         }
     }
 
+    private Settings current(final String event) {
+        switch (event) {
+        case "roles":
+            return roles;
+        case "actiongroups":
+            return actionGroups;
+        case "rolesmapping":
+            return rolesMapping;
+        case "config":
+            return config;
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * @return hit/miss statistics of the authorization decision cache
+     */
+    public CacheStats getDecisionCacheStats() {
+        return decisionCache.stats();
+    }
+    
+    public CacheStats getIndexResolutionCacheStats() {
+        return indexResolutionCache.stats();
+    }
+
     @Override
     public boolean isInitialized() {
-        return rolesMapping != null && roles != null;
+        return rolesMapping != null && sgRoles != null;
     }
 
     @Override
@@ -250,28 +304,35 @@ public class PrivilegesEvaluator implements ConfigChangeListener {
             log.debug("requested {} from {}", action, caller);
         }
 
+        //one snapshot for the whole evaluation
         final ClusterState clusterState = clusterService.state();
         final MetaData metaData = clusterState.metaData();
-        final Tuple<Set<String>, Set<String>> requestedResolvedAliasesIndicesTypes = resolve(user, action, request, metaData);
-
-        final Set<String> requestedResolvedIndices = Collections.unmodifiableSet(requestedResolvedAliasesIndicesTypes.v1());        
-        final Set<IndexType> requestedResolvedIndexTypes;
+        final SgRoles compiledRoles = this.sgRoles;
+        final boolean compositeEnabled = this.compositeEnabled;
+        final Set<String> sgRoles = mapSgRoles(user, caller);
+       
+        if (log.isDebugEnabled()) {
+            log.debug("mapped roles for {}: {}", user.getName(), sgRoles);
+        }
         
-        {
-            final Set<IndexType> requestedResolvedIndexTypes0 = new HashSet<IndexType>(requestedResolvedAliasesIndicesTypes.v1().size() * requestedResolvedAliasesIndicesTypes.v2().size());
+        if (canSkipExpansion(action, request, privilegesInterceptor, compositeEnabled)
+                && impliesWithoutExpansion(user, action, sgRoles, (IndicesRequest) request, clusterState, compiledRoles, 
+                        indexResolutionCache, searchguardIndex)) {
             
-            for(String index: requestedResolvedAliasesIndicesTypes.v1()) {
-                for(String type: requestedResolvedAliasesIndicesTypes.v2()) {
-                    requestedResolvedIndexTypes0.add(new IndexType(index, type));
-                }
+            if (log.isDebugEnabled()) {
+                log.debug("{} on {} permitted without resolving concrete indices", action, Arrays.toString(((IndicesRequest) request).indices()));
             }
             
-            requestedResolvedIndexTypes = Collections.unmodifiableSet(requestedResolvedIndexTypes0);
+            return true;
         }
         
+        final Tuple<Set<String>, Set<String>> requestedResolvedAliasesIndicesTypes = RequestIndices.resolve(request, clusterState, indexResolutionCache);
+
+        final Set<String> requestedResolvedIndices = Collections.unmodifiableSet(requestedResolvedAliasesIndicesTypes.v1());
+        final Set<String> requestedResolvedTypes = Collections.unmodifiableSet(requestedResolvedAliasesIndicesTypes.v2());
 
         if (log.isDebugEnabled()) {
-            log.debug("requested resolved indextypes: {}", requestedResolvedIndexTypes);
+            log.debug("requested resolved indices: {}, types: {}", requestedResolvedIndices, requestedResolvedTypes);
         }
         
         if (requestedResolvedIndices.contains(searchguardIndex)
@@ -305,15 +366,9 @@ public class PrivilegesEvaluator implements ConfigChangeListener {
             }
         }
 
-        final Set<String> sgRoles = mapSgRoles(user, caller);
-       
-        if (log.isDebugEnabled()) {
-            log.debug("mapped roles for {}: {}", user.getName(), sgRoles);
-        }
-        
         if(privilegesInterceptor.getClass() != PrivilegesInterceptor.class) {
         
-            final boolean denyRequest = privilegesInterceptor.replaceKibanaIndex(request, action, user, config, requestedResolvedIndices, mapTenants(user, caller));
+            final boolean denyRequest = privilegesInterceptor.replaceKibanaIndex(request, action, user, config, requestedResolvedIndices, mapTenants(user, sgRoles));
     
             if (denyRequest) {
                 auditLog.logMissingPrivileges(action, request);
@@ -321,18 +376,62 @@ public class PrivilegesEvaluator implements ConfigChangeListener {
             }
         }
         
+        decisionCache.checkMetaData(metaData);
+        
+        final AuthorizationDecisionCache.Key key = new AuthorizationDecisionCache.Key(compiledRoles, sgRoles, action, 
+                requestedResolvedIndices, requestedResolvedTypes, compiledRoles.isUserSpecific(sgRoles)?user.getName():null, 
+                compositeEnabled, metaData.version());
+        
+        final AuthorizationDecisionCache.Decision decision = decisionCache.get(key, new Callable<AuthorizationDecisionCache.Decision>() {
+            @Override
+            public AuthorizationDecisionCache.Decision call() throws Exception {
+                return evaluateRoles(user, action, sgRoles, requestedResolvedIndices, requestedResolvedTypes, clusterState, compiledRoles, compositeEnabled);
+            }
+        });
+        
+        final boolean allowAction = decision.isAllowed();
+
+        if (!allowAction && log.isInfoEnabled()) {
+            log.info("No perm match for {} {} {} [Action [{}]] [RolesChecked {}]", user, requestedResolvedIndices, requestedResolvedTypes, action, sgRoles);
+        }
+
+        if(decision.getDlsQueriesHeader() != null) {
+            request.putHeader(ConfigConstants.SG_DLS_QUERY, decision.getDlsQueriesHeader());
+        }
+        
+        if(decision.getFlsFieldsHeader() != null) {
+            request.putHeader(ConfigConstants.SG_FLS_FIELDS, decision.getFlsFieldsHeader());
+        }
+        
+        if(!allowAction && privilegesInterceptor.getClass() != PrivilegesInterceptor.class) {
+            return privilegesInterceptor.replaceAllowedIndices(request, action, user, config, new HashSet<IndexType>(decision.getLeftovers()));
+        }
+        
+        return allowAction;
+    }
+    
+    private AuthorizationDecisionCache.Decision evaluateRoles(final User user, final String action, final Set<String> sgRoles, 
+            final Set<String> requestedResolvedIndices, final Set<String> requestedResolvedTypes, final ClusterState clusterState,
+            final SgRoles compiledRoles, final boolean compositeEnabled) {
+        
         boolean allowAction = false;
         
         final Map<String,Set<String>> dlsQueries = new HashMap<String, Set<String>>();
         final Map<String,Set<String>> flsFields = new HashMap<String, Set<String>>();
 
         final Set<IndexType> leftovers = new HashSet<PrivilegesEvaluator.IndexType>();
+        
+        final boolean clusterAction = isClusterAction(action, compositeEnabled);
+
+        final IndexOrdinals ordinals = clusterAction ? null : indexResolutionCache.ordinals(clusterState);
+        final RequestedIndexTypes requestedResolvedIndexTypes = clusterAction ? null 
+                : new RequestedIndexTypes(ordinals, requestedResolvedIndices, requestedResolvedTypes);
 
         for (final Iterator<String> iterator = sgRoles.iterator(); iterator.hasNext();) {
             final String sgRole = (String) iterator.next();
-            final Settings sgRoleSettings = roles.getByPrefix(sgRole);
+            final SgRoles.SgRole role = compiledRoles.getRole(sgRole);
 
-            if (sgRoleSettings.names().isEmpty()) {
+            if (role == null) {
                 
                 if (log.isDebugEnabled()) {
                     log.debug("sg_role {} is empty", sgRole);
@@ -344,34 +443,18 @@ public class PrivilegesEvaluator implements ConfigChangeListener {
             if (log.isDebugEnabled()) {
                 log.debug("---------- evaluate sg_role: {}", sgRole);
             }
-
-            final boolean compositeEnabled = config.getAsBoolean("searchguard.dynamic.composite_enabled", false);
            
-            if (action.startsWith("cluster:") || action.startsWith("indices:admin/template/delete")
-                    || action.startsWith("indices:admin/template/get") || action.startsWith("indices:admin/template/put") 
-                || action.startsWith("indices:data/read/scroll")
-                //M*
-                || (compositeEnabled && action.equals(BulkAction.NAME))
-                || (compositeEnabled && action.equals(IndicesAliasesAction.NAME))
-                || (compositeEnabled && action.equals(MultiGetAction.NAME))
-                || (compositeEnabled && action.equals(MultiPercolateAction.NAME))
-                || (compositeEnabled && action.equals(MultiSearchAction.NAME))
-                || (compositeEnabled && action.equals(MultiTermVectorsAction.NAME))
-                || (compositeEnabled && action.equals("indices:data/read/coordinate-msearch"))
-                //|| (compositeEnabled && action.startsWith(MultiPercolateAction.NAME))
-                ) {
+            if (clusterAction) {
                 
-                final Set<String> resolvedActions = resolveActions(sgRoleSettings.getAsArray(".cluster", new String[0]));
-
                 if (log.isDebugEnabled()) {
-                    log.debug("  resolved cluster actions:{}", resolvedActions);
+                    log.debug("  resolved cluster actions:{}", Arrays.toString(role.getClusterPerms()));
                 }
 
-                if (WildcardMatcher.matchAny(resolvedActions.toArray(new String[0]), action)) {
+                if (role.impliesClusterPermission(action)) {
                     if (log.isDebugEnabled()) {
                         log.debug("  found a match for '{}' and {}, skip other roles", sgRole, action);
                     }
-                    return true;
+                    return new AuthorizationDecisionCache.Decision(true, null, null, Collections.<IndexType>emptySet());
                 } else {
                     //check other roles #108
                     if (log.isDebugEnabled()) {
@@ -381,14 +464,6 @@ public class PrivilegesEvaluator implements ConfigChangeListener {
                 }
             }
 
-            final Map<String, Settings> permittedAliasesIndices0 = sgRoleSettings.getGroups(".indices");
-            final Map<String, Settings> permittedAliasesIndices = new HashMap<String, Settings>(permittedAliasesIndices0.size());
-            
-            for (String origKey : permittedAliasesIndices0.keySet()) {
-                permittedAliasesIndices.put(origKey.replace("${user.name}", user.getName()).replace("${user_name}", user.getName()),
-                        permittedAliasesIndices0.get(origKey));
-            }
-
             /*
             sg_role_starfleet:
             indices:
@@ -412,31 +487,28 @@ public class PrivilegesEvaluator implements ConfigChangeListener {
             - READ
              */
             
-            final ListMultimap<String, String> resolvedRoleIndices = Multimaps.synchronizedListMultimap(ArrayListMultimap
-                    .<String, String> create());
+            final List<SgRoles.IndexPattern> resolvedRoleIndices = new ArrayList<SgRoles.IndexPattern>();
             
-            final Set<IndexType> _requestedResolvedIndexTypes = new HashSet<IndexType>(requestedResolvedIndexTypes);            
+            final RequestedIndexTypes _requestedResolvedIndexTypes = requestedResolvedIndexTypes.copy();
             //iterate over all beneath indices:
             permittedAliasesIndices:
-            for (final String permittedAliasesIndex : permittedAliasesIndices.keySet()) {
+            for (final SgRoles.IndexPattern indexPattern : role.getIndexPatterns()) {
                 
-                //final Map<String, Settings> permittedTypes = sgRoleSettings.getGroups(".indices."+permittedAliasesIndex);
-                
-                //System.out.println(permittedTypes);
+                final String permittedAliasesIndex = indexPattern.getPattern(user);
 
                 if (WildcardMatcher.containsWildcard(permittedAliasesIndex)) {
                     if (log.isDebugEnabled()) {
                         log.debug("  Try wildcard match for {}", permittedAliasesIndex);
                     }
 
-                    handleIndicesWithWildcard(action, permittedAliasesIndex, permittedAliasesIndices, requestedResolvedIndexTypes, _requestedResolvedIndexTypes, requestedResolvedIndices);
+                    handleIndicesWithWildcard(action, permittedAliasesIndex, indexPattern, ordinals, _requestedResolvedIndexTypes);
 
                 } else {
                     if (log.isDebugEnabled()) {
                         log.debug("  Resolve and match {}", permittedAliasesIndex);
                     }
 
-                    handleIndicesWithoutWildcard(action, permittedAliasesIndex, permittedAliasesIndices, requestedResolvedIndexTypes, _requestedResolvedIndexTypes);
+                    handleIndicesWithoutWildcard(action, permittedAliasesIndex, indexPattern, role, ordinals, _requestedResolvedIndexTypes, clusterState);
                 }
 
                 if (log.isDebugEnabled()) {
@@ -491,150 +563,277 @@ public class PrivilegesEvaluator implements ConfigChangeListener {
                         log.debug("found a match for '{}.{}', evaluate other roles", sgRole, permittedAliasesIndex);
                     }
                 
-                    resolvedRoleIndices.put(sgRole, permittedAliasesIndex);
+                    resolvedRoleIndices.add(indexPattern);
                 }
                 
             }// end loop permittedAliasesIndices
 
             
             if (!resolvedRoleIndices.isEmpty()) {                
-                for(String resolvedRole: resolvedRoleIndices.keySet()) {
-                    for(String indexPattern: resolvedRoleIndices.get(resolvedRole)) {                  
-                        String dls = roles.get(resolvedRole+".indices."+indexPattern+"._dls_");
-                        final String[] fls = roles.getAsArray(resolvedRole+".indices."+indexPattern+"._fls_");
+                for(SgRoles.IndexPattern resolvedIndexPattern: resolvedRoleIndices) {
+                    final String indexPattern = resolvedIndexPattern.getPattern(user);
+                    final String dls = resolvedIndexPattern.getDlsQuery(user);
+                    final String[] fls = resolvedIndexPattern.getFlsFields();
 
-                        //only when dls and fls != null
-                        String[] concreteIndices = new String[0];
-                        
-                        if((dls != null && dls.length() > 0) || (fls != null && fls.length > 0)) {
-                            concreteIndices = resolver.concreteIndices(clusterService.state(), DEFAULT_INDICES_OPTIONS/*??*/,indexPattern);
+                    //only when dls and fls != null
+                    String[] concreteIndices = new String[0];
+                    
+                    if(dls != null || fls.length > 0) {
+                        concreteIndices = indexResolutionCache.concreteIndices(clusterState, DEFAULT_INDICES_OPTIONS/*??*/,indexPattern);
+                    }
+                    
+                    if(dls != null) {
+                       
+                        if(dlsQueries.containsKey(indexPattern)) {
+                            dlsQueries.get(indexPattern).add(dls);
+                        } else {
+                            dlsQueries.put(indexPattern, new HashSet<String>());
+                            dlsQueries.get(indexPattern).add(dls);
                         }
                         
-                        if(dls != null && dls.length() > 0) {
-                            
-                            //TODO use UserPropertyReplacer, make it registerable for ldap user
-                            dls = dls.replace("${user.name}", user.getName()).replace("${user_name}", user.getName());
-                           
-                            if(dlsQueries.containsKey(indexPattern)) {
-                                dlsQueries.get(indexPattern).add(dls);
+                        
+                        for (int i = 0; i < concreteIndices.length; i++) {
+                            final String ci = concreteIndices[i];
+                            if(dlsQueries.containsKey(ci)) {
+                                dlsQueries.get(ci).add(dls);
                             } else {
-                                dlsQueries.put(indexPattern, new HashSet<String>());
-                                dlsQueries.get(indexPattern).add(dls);
+                                dlsQueries.put(ci, new HashSet<String>());
+                                dlsQueries.get(ci).add(dls);
                             }
-                            
-                            
-                            for (int i = 0; i < concreteIndices.length; i++) {
-                                final String ci = concreteIndices[i];
-                                if(dlsQueries.containsKey(ci)) {
-                                    dlsQueries.get(ci).add(dls);
-                                } else {
-                                    dlsQueries.put(ci, new HashSet<String>());
-                                    dlsQueries.get(ci).add(dls);
-                                }
-                            }
-                            
-                                                
-                            if (log.isDebugEnabled()) {
-                                log.debug("dls query {} for {}", dls, Arrays.toString(concreteIndices));
-                            }
-                            
                         }
                         
-                        if(fls != null && fls.length > 0) {
-                            
-                            if(flsFields.containsKey(indexPattern)) {
-                                flsFields.get(indexPattern).addAll(Sets.newHashSet(fls));
+                                            
+                        if (log.isDebugEnabled()) {
+                            log.debug("dls query {} for {}", dls, Arrays.toString(concreteIndices));
+                        }
+                        
+                    }
+                    
+                    if(fls.length > 0) {
+                        
+                        if(flsFields.containsKey(indexPattern)) {
+                            flsFields.get(indexPattern).addAll(Sets.newHashSet(fls));
+                        } else {
+                            flsFields.put(indexPattern, new HashSet<String>());
+                            flsFields.get(indexPattern).addAll(Sets.newHashSet(fls));
+                        }
+                        
+                        for (int i = 0; i < concreteIndices.length; i++) {
+                            final String ci = concreteIndices[i];
+                            if(flsFields.containsKey(ci)) {
+                                flsFields.get(ci).addAll(Sets.newHashSet(fls));
                             } else {
-                                flsFields.put(indexPattern, new HashSet<String>());
-                                flsFields.get(indexPattern).addAll(Sets.newHashSet(fls));
-                            }
-                            
-                            for (int i = 0; i < concreteIndices.length; i++) {
-                                final String ci = concreteIndices[i];
-                                if(flsFields.containsKey(ci)) {
-                                    flsFields.get(ci).addAll(Sets.newHashSet(fls));
-                                } else {
-                                    flsFields.put(ci, new HashSet<String>());
-                                    flsFields.get(ci).addAll(Sets.newHashSet(fls));
-                                }
-                            }
-                            
-                            if (log.isDebugEnabled()) {
-                                log.debug("fls fields {} for {}", Sets.newHashSet(fls), Arrays.toString(concreteIndices));
+                                flsFields.put(ci, new HashSet<String>());
+                                flsFields.get(ci).addAll(Sets.newHashSet(fls));
                             }
-                            
+                        }
+                        
+                        if (log.isDebugEnabled()) {
+                            log.debug("fls fields {} for {}", Sets.newHashSet(fls), Arrays.toString(concreteIndices));
                         }
                         
                     }
+                    
                 }
                 
                 allowAction = true;
             }
 
-            leftovers.addAll(_requestedResolvedIndexTypes);
+            leftovers.addAll(_requestedResolvedIndexTypes.toSet());
             
         } // end sg role loop
 
-        if (!allowAction && log.isInfoEnabled()) {
-            log.info("No perm match for {} {} [Action [{}]] [RolesChecked {}]", user, requestedResolvedIndexTypes, action, sgRoles);
+        return new AuthorizationDecisionCache.Decision(allowAction, 
+                dlsQueries.isEmpty()?null:Base64Helper.serializeObject((Serializable) dlsQueries, compactSerialization), 
+                flsFields.isEmpty()?null:Base64Helper.serializeObject((Serializable) flsFields, compactSerialization), 
+                leftovers);
+    }
+
+    
+    //---- end evaluate()
+
+    private static boolean isClusterAction(final String action, final boolean compositeEnabled) {
+        return action.startsWith("cluster:") || action.startsWith("indices:admin/template/delete")
+            || action.startsWith("indices:admin/template/get") || action.startsWith("indices:admin/template/put") 
+            || action.startsWith("indices:data/read/scroll")
+            //M*
+            || (compositeEnabled && action.equals(BulkAction.NAME))
+            || (compositeEnabled && action.equals(IndicesAliasesAction.NAME))
+            || (compositeEnabled && action.equals(MultiGetAction.NAME))
+            || (compositeEnabled && action.equals(MultiPercolateAction.NAME))
+            || (compositeEnabled && action.equals(MultiSearchAction.NAME))
+            || (compositeEnabled && action.equals(MultiTermVectorsAction.NAME))
+            || (compositeEnabled && action.equals("indices:data/read/coordinate-msearch"))
+            //|| (compositeEnabled && action.startsWith(MultiPercolateAction.NAME))
+            ;
+    }
+
+    /**
+     * @return true if {@link #impliesWithoutExpansion} may be used for the request, i.e. for single (not composite) 
+     * index requests without a privileges interceptor
+     */
+    static boolean canSkipExpansion(final String action, final ActionRequest<?> request, final PrivilegesInterceptor privilegesInterceptor, 
+            final boolean compositeEnabled) {
+        return request instanceof IndicesRequest && !(request instanceof CompositeIndicesRequest) 
+                && privilegesInterceptor.getClass() == PrivilegesInterceptor.class && !isClusterAction(action, compositeEnabled);
+    }
+
+    /**
+     * Decide without expanding the requested index expressions if one role grants the action for all of them,
+     * e.g. a role granting <code>logs-*</code> for a request on <code>logs-2017*</code>.
+     * 
+     * @return true if permitted, false if not permitted or if this can not be decided without the concrete indices
+     */
+    static boolean impliesWithoutExpansion(final User user, final String action, final Set<String> sgRoles, 
+            final IndicesRequest request, final ClusterState clusterState, final SgRoles compiledRoles, 
+            final IndexResolutionCache indexResolutionCache, final String searchguardIndex) {
+        
+        final String[] expressions = request.indices();
+        final IndicesOptions indicesOptions = request.indicesOptions();
+        
+        if (expressions == null || expressions.length == 0 || indicesOptions == null) {
+            return false;
+        }
+        
+        final List<SgRoles.SgRole> roles = new ArrayList<SgRoles.SgRole>(sgRoles.size());
+        
+        for (final String sgRole : sgRoles) {
+            final SgRoles.SgRole role = compiledRoles.getRole(sgRole);
+            
+            if (role == null) {
+                continue;
+            }
+            
+            //dls queries and fls fields are collected for the concrete indices
+            if (role.hasDlsOrFls()) {
+                return false;
+            }
+            
+            roles.add(role);
+        }
+        
+        if (roles.isEmpty()) {
+            return false;
         }
 
-        if(!dlsQueries.isEmpty()) {
-            request.putHeader(ConfigConstants.SG_DLS_QUERY, Base64Helper.serializeObject((Serializable) dlsQueries));
+        final IndexOrdinals ordinals = indexResolutionCache.ordinals(clusterState);
+        
+        //more than one filtered alias for the requested indices is not permitted
+        if (ordinals.hasFilteredAliases()) {
+            return false;
         }
         
-        if(!flsFields.isEmpty()) {
-            request.putHeader(ConfigConstants.SG_FLS_FIELDS, Base64Helper.serializeObject((Serializable) flsFields));
+        for (final String expression : expressions) {
+            
+            if (expression == null || expression.isEmpty() || expression.equals("_all") || expression.indexOf(',') > -1
+                    || expression.startsWith("-") || expression.startsWith("+") || expression.startsWith("<") 
+                    || Regex.simpleMatch(expression, searchguardIndex)) {
+                return false;
+            }
+            
+            if (expression.indexOf('*') > -1) {
+                
+                //aliases matching the expression would add their indices
+                if (ordinals.expressionMatchesAlias(expression)) {
+                    return false;
+                }
+                
+                //an expression without matching indices would be evaluated as _all
+                final FixedBitSet matching = ordinals.matchingExpression(expression);
+                final boolean matchesOpen = indicesOptions.expandWildcardsOpen() && matching.intersects(ordinals.open());
+                final boolean matchesClosed = indicesOptions.expandWildcardsClosed() && FixedBitSet.andNotCount(matching, ordinals.open()) > 0;
+                
+                if (!matchesOpen && !matchesClosed) {
+                    return false;
+                }
+                
+            } else {
+                
+                //only existing open indices, aliases and closed indices are resolved
+                final int ordinal = ordinals.ordinal(expression);
+                
+                if (ordinal < 0 || !ordinals.open().get(ordinal)) {
+                    return false;
+                }
+            }
         }
         
-        if(!allowAction && privilegesInterceptor.getClass() != PrivilegesInterceptor.class) {
-            return privilegesInterceptor.replaceAllowedIndices(request, action, user, config, leftovers);
+        final Set<String> types = RequestTypes.types(request);
+        
+        if (types.isEmpty()) {
+            types.add("_all");
         }
         
-        return allowAction;
+        for (final SgRoles.SgRole role : roles) {
+            if (covers(user, action, role, expressions, types)) {
+                return true;
+            }
+        }
+        
+        return false;
     }
-
-    
-    //---- end evaluate()
     
-    public Set<String> mapSgRoles(final User user, final TransportAddress caller) {
+    private static boolean covers(final User user, final String action, final SgRoles.SgRole role, final String[] expressions, final Set<String> types) {
         
-        if(user == null) {
-            return Collections.emptySet();
+        for (final String expression : expressions) {
+            for (final String type : types) {
+                if (!covers(user, action, role, expression, type)) {
+                    return false;
+                }
+            }
         }
         
-        final Set<String> sgRoles = new TreeSet<String>();
-        for (final String roleMap : rolesMapping.names()) {
-            final Settings roleMapSettings = rolesMapping.getByPrefix(roleMap);
+        return true;
+    }
+    
+    private static boolean covers(final User user, final String action, final SgRoles.SgRole role, final String expression, final String type) {
+        
+        for (final SgRoles.IndexPattern indexPattern : role.getIndexPatterns()) {
             
-            if (WildcardMatcher.allPatternsMatched(roleMapSettings.getAsArray(".and_backendroles"), user.getRoles().toArray(new String[0]))) {
-                sgRoles.add(roleMap);
+            if (!WildcardMatcher.covers(indexPattern.getPattern(user), expression)) {
                 continue;
             }
             
-            if (WildcardMatcher.matchAny(roleMapSettings.getAsArray(".backendroles"), user.getRoles().toArray(new String[0]))) {
-                sgRoles.add(roleMap);
-                continue;
-            }
-
-            if (WildcardMatcher.matchAny(roleMapSettings.getAsArray(".users"), user.getName())) {
-                sgRoles.add(roleMap);
-                continue;
-            }
-
-            if (caller != null &&  WildcardMatcher.matchAny(roleMapSettings.getAsArray(".hosts"), caller.getAddress())) {
-                sgRoles.add(roleMap);
-                continue;
+            for (final SgRoles.TypePerm typePerm : indexPattern.getTypePerms()) {
+                if (RequestedIndexTypes.typeMatches(typePerm.getType(), type) && typePerm.impliesAction(action)) {
+                    return true;
+                }
             }
+        }
+        
+        return false;
+    }
 
-            if (caller != null && WildcardMatcher.matchAny(roleMapSettings.getAsArray(".hosts"), caller.getHost())) {
-                sgRoles.add(roleMap);
-                continue;
+    
+    /**
+     * @return true if one of the sg roles mapped to the user grants the given cluster permission
+     */
+    public boolean hasClusterPermission(final User user, final TransportAddress caller, final String permission) {
+        
+        if(user == null || !isInitialized()) {
+            return false;
+        }
+        
+        final SgRoles compiledRoles = this.sgRoles;
+        
+        for(String sgRole: mapSgRoles(user, caller)) {
+            final SgRoles.SgRole role = compiledRoles.getRole(sgRole);
+            
+            if(role != null && role.impliesClusterPermission(permission)) {
+                return true;
             }
-
         }
         
-        return Collections.unmodifiableSet(sgRoles);
+        return false;
+    }
+    
+    public Set<String> mapSgRoles(final User user, final TransportAddress caller) {
+        
+        if(user == null) {
+            return Collections.emptySet();
+        }
+        
+        return sgRoleMappings.map(user, caller);
 
     }
     
@@ -644,24 +843,31 @@ public class PrivilegesEvaluator implements ConfigChangeListener {
             return Collections.emptyMap();
         }
         
+        return mapTenants(user, mapSgRoles(user, caller));
+    }
+    
+    private Map<String, Boolean> mapTenants(final User user, final Set<String> sgRoles) {
+        
         final Map<String, Boolean> result = new HashMap<String, Boolean>();
         result.put(user.getName(), true);
         
-        for(String sgRole: mapSgRoles(user, caller)) {
-            Settings tenants = roles.getByPrefix(sgRole+".tenants.");
+        final SgRoles compiledRoles = this.sgRoles;
+        
+        for(String sgRole: sgRoles) {
+            final SgRoles.SgRole role = compiledRoles.getRole(sgRole);
             
-            if(tenants != null) {
-                for(String tenant: tenants.names()) {
+            if(role != null) {
+                for(Map.Entry<String, Boolean> tenant: role.getTenants().entrySet()) {
                     
-                    if(tenant.equals(user.getName())) {
+                    if(tenant.getKey().equals(user.getName())) {
                         continue;
                     }
                     
-                    if("RW".equalsIgnoreCase(tenants.get(tenant, "RO"))) {
-                        result.put(tenant, true);
+                    if(tenant.getValue()) {
+                        result.put(tenant.getKey(), true);
                     } else {
-                        if(!result.containsKey(tenant)) { //RW outperforms RO
-                            result.put(tenant, false);
+                        if(!result.containsKey(tenant.getKey())) { //RW outperforms RO
+                            result.put(tenant.getKey(), false);
                         }
                     }
                 }
@@ -674,279 +880,68 @@ public class PrivilegesEvaluator implements ConfigChangeListener {
 
 
     private void handleIndicesWithWildcard(final String action, final String permittedAliasesIndex,
-            final Map<String, Settings> permittedAliasesIndices, final Set<IndexType> requestedResolvedIndexTypes, final Set<IndexType> _requestedResolvedIndexTypes, final Set<String> requestedResolvedIndices0) {
+            final SgRoles.IndexPattern indexPattern, final IndexOrdinals ordinals, final RequestedIndexTypes _requestedResolvedIndexTypes) {
         
-        List<String> wi = null;
-        if (!(wi = WildcardMatcher.getMatchAny(permittedAliasesIndex, requestedResolvedIndices0.toArray(new String[0]))).isEmpty()) {
-
-            if (log.isDebugEnabled()) {
-                log.debug("  Wildcard match for {}: {}", permittedAliasesIndex, wi);
-            }
-
-            final Set<String> permittedTypes = new HashSet<String>(permittedAliasesIndices.get(permittedAliasesIndex).names());
-            permittedTypes.removeAll(DLSFLS);
-            
-            if (log.isDebugEnabled()) {
-                log.debug("  matches for {}, will check now types {}", permittedAliasesIndex, permittedTypes);
-            }
-
-            for (final String type : permittedTypes) {
-                
-                final Set<String> resolvedActions = resolveActions(permittedAliasesIndices.get(permittedAliasesIndex).getAsArray(type));
-
-                if (WildcardMatcher.matchAny(resolvedActions.toArray(new String[0]), action)) {
-                    if (log.isDebugEnabled()) {
-                        log.debug("    match requested action {} against {}/{}: {}", action, permittedAliasesIndex, type, resolvedActions);
-                    }
-
-                    for(String it: wi) {
-                        boolean removed = wildcardRemoveFromSet(_requestedResolvedIndexTypes, new IndexType(it, type));
-                        
-                        if(removed) {
-                            log.debug("    removed {}", it+type);
-                        } else {
-                            log.debug("    no match {} in {}", it+type, _requestedResolvedIndexTypes);
-                        }
-                    }
-                }
-                
-            }  
-        } else {
-            if (log.isDebugEnabled()) {
-                log.debug("  No wildcard match found for {}", permittedAliasesIndex);
-            }
-
-            return;
-        }
+        //ordinals of all concrete indices matching the pattern, computed once per metadata version
+        final FixedBitSet permittedIndices = ordinals.matching(permittedAliasesIndex);
+        
+        removePermitted(action, permittedAliasesIndex, indexPattern, permittedIndices, WildcardMatcher.compile(permittedAliasesIndex), _requestedResolvedIndexTypes);
     }
 
     private void handleIndicesWithoutWildcard(final String action, final String permittedAliasesIndex,
-            final Map<String, Settings> permittedAliasesIndices, final Set<IndexType> requestedResolvedIndexTypes, final Set<IndexType> _requestedResolvedIndexTypes) {
+            final SgRoles.IndexPattern indexPattern, final SgRoles.SgRole role, final IndexOrdinals ordinals, final RequestedIndexTypes _requestedResolvedIndexTypes,
+            final ClusterState clusterState) {
 
-        final Set<String> resolvedPermittedAliasesIndex = new HashSet<String>();
+        final FixedBitSet permittedIndices;
+        final WildcardMatcher permittedOthers;
         
-        if(!resolver.hasIndexOrAlias(permittedAliasesIndex, clusterService.state())) {
+        if(!resolver.hasIndexOrAlias(permittedAliasesIndex, clusterState)) {
             
             if(log.isDebugEnabled()) {
                 log.debug("no permittedAliasesIndex '{}' found for  '{}'", permittedAliasesIndex,  action);
                 
                 
-                for(String pai: permittedAliasesIndices.keySet()) {
-                    Settings paiSettings = permittedAliasesIndices.get(pai);
-                    log.debug("permittedAliasesIndices '{}' -> '{}'", permittedAliasesIndices, paiSettings==null?"null":String.valueOf(paiSettings.getAsMap()));
+                for(SgRoles.IndexPattern pai: role.getIndexPatterns()) {
+                    log.debug("permittedAliasesIndices '{}' -> '{}'", pai.getPattern(), pai);
                 }
                 
-                log.debug("requestedResolvedIndexTypes '{}'", requestedResolvedIndexTypes);   
+                log.debug("requestedResolvedIndexTypes '{}'", _requestedResolvedIndexTypes);   
             }
             
-            resolvedPermittedAliasesIndex.add(permittedAliasesIndex);
+            //only matches the very same (unresolvable) requested name
+            permittedIndices = ordinals.empty();
+            permittedOthers = WildcardMatcher.compile(permittedAliasesIndex);
 
         } else {
-            resolvedPermittedAliasesIndex.addAll(Arrays.asList(resolver.concreteIndices(
-                    clusterService.state(), DEFAULT_INDICES_OPTIONS, permittedAliasesIndex)));
-        }
-        
-        
-        if (log.isDebugEnabled()) {
-            log.debug("  resolved permitted aliases indices for {}: {}", permittedAliasesIndex, resolvedPermittedAliasesIndex);
-        }
-
-        //resolvedPermittedAliasesIndex -> resolved indices from role entry n
-        final Set<String> permittedTypes = new HashSet<String>(permittedAliasesIndices.get(permittedAliasesIndex).names());
-        permittedTypes.removeAll(DLSFLS);
-        
-        if (log.isDebugEnabled()) {
-            log.debug("  matches for {}, will check now types {}", permittedAliasesIndex, permittedTypes);
-        }
-
-        for (final String type : permittedTypes) {
+            final String[] concreteIndices = indexResolutionCache.concreteIndices(clusterState, DEFAULT_INDICES_OPTIONS, permittedAliasesIndex);
             
-            final Set<String> resolvedActions = resolveActions(permittedAliasesIndices.get(permittedAliasesIndex).getAsArray(type));
-
-            if (WildcardMatcher.matchAny(resolvedActions.toArray(new String[0]), action)) {
-                if (log.isDebugEnabled()) {
-                    log.debug("    match requested action {} against {}/{}: {}", action, permittedAliasesIndex, type, resolvedActions);
-                }
-
-                for(String resolvedPermittedIndex: resolvedPermittedAliasesIndex) {
-                    boolean removed = wildcardRemoveFromSet(_requestedResolvedIndexTypes, new IndexType(resolvedPermittedIndex, type));
-                    
-                    if(removed) {
-                        log.debug("    removed {}", resolvedPermittedIndex+type);
-
-                    } else {
-                        log.debug("    no match {} in {}", resolvedPermittedIndex+type, _requestedResolvedIndexTypes);
-                    }
-                }
-            }
-        }
-    }
-
-    private Tuple<Set<String>, Set<String>> resolve(final User user, final String action, final TransportRequest request,
-            final MetaData metaData) {
-
-        if (!(request instanceof CompositeIndicesRequest) && !(request instanceof IndicesRequest)) {
-
             if (log.isDebugEnabled()) {
-                log.debug("{} is not an IndicesRequest", request.getClass());
+                log.debug("  resolved permitted aliases indices for {}: {}", permittedAliasesIndex, Arrays.toString(concreteIndices));
             }
-
-            return new Tuple<Set<String>, Set<String>>(Sets.newHashSet("_all"), Sets.newHashSet("_all"));
-        }
-
-        final Set<String> indices = new HashSet<String>();
-        final Set<String> types = new HashSet<String>();
-
-        if (request instanceof CompositeIndicesRequest) {
-            for (final IndicesRequest indicesRequest : ((CompositeIndicesRequest) request).subRequests()) {
-                final Tuple<Set<String>, Set<String>> t = resolve(user, action, indicesRequest, metaData);
-                indices.addAll(t.v1());
-                types.addAll(t.v2());
-            }
-        } else {
-            final Tuple<Set<String>, Set<String>> t = resolve(user, action, (IndicesRequest) request, metaData);
-            indices.addAll(t.v1());
-            types.addAll(t.v2());
-        }
-        
-        //for PutIndexTemplateRequest the index does not exists yet typically
-        if (IndexNameExpressionResolver.isAllIndices(new ArrayList<String>(indices))) {
-            if(log.isDebugEnabled()) {
-                log.debug("The following list are '_all' indices: {}", indices);
-            }
-            indices.clear();
-            indices.add("_all");
-        }
-
-        if (types.isEmpty()) {
-            types.add("_all");
+            
+            permittedIndices = ordinals.of(concreteIndices);
+            permittedOthers = WildcardMatcher.NONE;
         }
 
-        return new Tuple<Set<String>, Set<String>>(Collections.unmodifiableSet(indices), Collections.unmodifiableSet(types));
+        removePermitted(action, permittedAliasesIndex, indexPattern, permittedIndices, permittedOthers, _requestedResolvedIndexTypes);
     }
-
-    private Tuple<Set<String>, Set<String>> resolve(final User user, final String action, final IndicesRequest request,
-            final MetaData metaData) {
-
-        if (log.isDebugEnabled()) {
-            log.debug("Resolve {} from {}", request.indices(), request.getClass());
-        }
-
-        final Class<? extends IndicesRequest> requestClass = request.getClass();
-        final Set<String> requestTypes = new HashSet<String>();
-        
-        Method typeMethod = null;
-        if(typeCache.containsKey(requestClass)) {
-            typeMethod = typeCache.get(requestClass);
-        } else {
-            try {
-                typeMethod = requestClass.getMethod("type");
-                typeCache.put(requestClass, typeMethod);
-            } catch (NoSuchMethodException e) {
-                typeCache.put(requestClass, null);
-            } catch (SecurityException e) {
-                log.error("Cannot evaluate type() for {} due to {}", requestClass, e);
-            }
-            
-        }
-        
-        Method typesMethod = null;
-        if(typesCache.containsKey(requestClass)) {
-            typesMethod = typesCache.get(requestClass);
-        } else {
-            try {
-                typesMethod = requestClass.getMethod("types");
-                typesCache.put(requestClass, typesMethod);
-            } catch (NoSuchMethodException e) {
-                typesCache.put(requestClass, null);
-            } catch (SecurityException e) {
-                log.error("Cannot evaluate types() for {} due to {}", requestClass, e);
-            }
-            
-        }
-        
-        if(typeMethod != null) {
-            try {
-                String type = (String) typeMethod.invoke(request);
-                if(type != null) {
-                    requestTypes.add(type);
-                }
-            } catch (Exception e) {
-                log.error("Unable to invoke type() for {} due to {}", e, requestClass, e);
-            }
-        }
-        
-        if(typesMethod != null) {
-            try {
-                final String[] types = (String[]) typesMethod.invoke(request);
-                
-                if(types != null) {
-                    requestTypes.addAll(Arrays.asList(types));
-                }
-            } catch (Exception e) {
-                log.error("Unable to invoke types() for {} due to {}", e, requestClass, e);
-            }
-        }
+    
+    private void removePermitted(final String action, final String permittedAliasesIndex, final SgRoles.IndexPattern indexPattern,
+            final FixedBitSet permittedIndices, final WildcardMatcher permittedOthers, final RequestedIndexTypes _requestedResolvedIndexTypes) {
 
         if (log.isDebugEnabled()) {
-            log.debug("indicesOptions {}", request.indicesOptions());
-            log.debug("raw indices {}", Arrays.toString(request.indices()));
+            log.debug("  matches for {}, will check now types {}", permittedAliasesIndex, indexPattern.getTypePerms());
         }
 
-        final Set<String> indices = new HashSet<String>();
+        for (final SgRoles.TypePerm typePerm : indexPattern.getTypePerms()) {
 
-        if(request.indices() == null || request.indices().length == 0 || new HashSet<String>(Arrays.asList(request.indices())).equals(NULL_SET)) {
-            
-            if(log.isDebugEnabled()) {
-                log.debug("No indices found in request, assume _all");
-            }
-            
-            indices.addAll(Arrays.asList(resolver.concreteIndices(clusterService.state(), DEFAULT_INDICES_OPTIONS, "*")));
-            
-        } else {
-            
-            try {
-                indices.addAll(Arrays.asList(resolver.concreteIndices(clusterService.state(), request)));
-                if(log.isDebugEnabled()) {
-                    log.debug("Resolved {} to {}", request.indices(), indices);
+            if (typePerm.impliesAction(action)) {
+                if (log.isDebugEnabled()) {
+                    log.debug("    match requested action {} against {}/{}: {}", action, permittedAliasesIndex, typePerm.getType(), Arrays.toString(typePerm.getPerms()));
                 }
-            } catch (final Exception e) {
-                log.debug("Cannot resolve {} (due to {}) so we use the raw values", Arrays.toString(request.indices()), e);
-                indices.addAll(Arrays.asList(request.indices()));
-            }
-        }
-        
-        return new Tuple<Set<String>, Set<String>>(indices, requestTypes);
-    }
 
-    private Set<String> resolveActions(final String[] actions) {
-        final Set<String> resolvedActions = new HashSet<String>();
-        for (int i = 0; i < actions.length; i++) {
-            final String string = actions[i];
-            final Set<String> groups = ah.getGroupMembers(string);
-            if (groups.isEmpty()) {
-                resolvedActions.add(string);
-            } else {
-                resolvedActions.addAll(groups);
+                _requestedResolvedIndexTypes.remove(permittedIndices, permittedOthers, typePerm.getType());
             }
         }
-
-        return resolvedActions;
-    }
-    
-    private boolean wildcardRemoveFromSet(Set<IndexType> set, IndexType stringContainingWc) {      
-        if(set.contains(stringContainingWc)) {
-            return set.remove(stringContainingWc);
-        } else {
-            boolean modified = false;
-            Set<IndexType> copy = new HashSet<IndexType>(set);
-            
-            for(IndexType it: copy) {
-                if(WildcardMatcher.match(stringContainingWc.getCombinedString(), it.getCombinedString())) {
-                    modified = set.remove(it) | modified;
-                }
-            }
-            return modified;
-        }  
     }
 }
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2017 floragunn GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.floragunn.searchguard.configuration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.elasticsearch.action.CompositeIndicesRequest;
+import org.elasticsearch.action.IndicesRequest;
+import org.elasticsearch.action.support.IndicesOptions;
+import org.elasticsearch.cluster.ClusterState;
+import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
+import org.elasticsearch.common.collect.Tuple;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.transport.TransportRequest;
+
+import com.google.common.collect.Sets;
+
+/**
+ * Resolves the requested indices and types of a request against the cluster state.
+ * <p>
+ * The sub requests of a {@link CompositeIndicesRequest} (like the items of a bulk request) are resolved
+ * only once per distinct indices, indices options and types.
+ */
+final class RequestIndices {
+
+    private static final ESLogger log = Loggers.getLogger(RequestIndices.class);
+
+    private static final Set<String> NULL_SET = Sets.newHashSet((String)null);
+    private static final IndicesOptions DEFAULT_INDICES_OPTIONS = IndicesOptions.lenientExpandOpen();
+
+    private RequestIndices() {
+    }
+
+    /**
+     * @return the resolved indices and types of the request, <code>_all</code> if the request has no indices or types
+     */
+    static Tuple<Set<String>, Set<String>> resolve(final TransportRequest request, final ClusterState clusterState, 
+            final IndexResolutionCache indexResolutionCache) {
+
+        if (!(request instanceof CompositeIndicesRequest) && !(request instanceof IndicesRequest)) {
+
+            if (log.isDebugEnabled()) {
+                log.debug("{} is not an IndicesRequest", request.getClass());
+            }
+
+            return new Tuple<Set<String>, Set<String>>(Sets.newHashSet("_all"), Sets.newHashSet("_all"));
+        }
+
+        final Set<String> indices = new HashSet<String>();
+        final Set<String> types = new HashSet<String>();
+
+        if (request instanceof CompositeIndicesRequest) {
+            //bulk requests typically have many items for only a few distinct targets, resolve each only once
+            final Set<SubRequestKey> resolvedSubRequests = new HashSet<SubRequestKey>();
+            
+            for (final IndicesRequest indicesRequest : ((CompositeIndicesRequest) request).subRequests()) {
+                final Set<String> subRequestTypes = RequestTypes.types(indicesRequest);
+                
+                if (!resolvedSubRequests.add(new SubRequestKey(indicesRequest.indices(), indicesRequest.indicesOptions(), subRequestTypes))) {
+                    continue;
+                }
+                
+                indices.addAll(resolveIndices(indicesRequest, clusterState, indexResolutionCache));
+                types.addAll(subRequestTypes);
+            }
+            
+            if (log.isDebugEnabled()) {
+                log.debug("Resolved {} distinct sub requests of {}", resolvedSubRequests.size(), request.getClass());
+            }
+        } else {
+            indices.addAll(resolveIndices((IndicesRequest) request, clusterState, indexResolutionCache));
+            types.addAll(RequestTypes.types((IndicesRequest) request));
+        }
+        
+        //for PutIndexTemplateRequest the index does not exists yet typically
+        if (IndexNameExpressionResolver.isAllIndices(new ArrayList<String>(indices))) {
+            if(log.isDebugEnabled()) {
+                log.debug("The following list are '_all' indices: {}", indices);
+            }
+            indices.clear();
+            indices.add("_all");
+        }
+
+        if (types.isEmpty()) {
+            types.add("_all");
+        }
+
+        return new Tuple<Set<String>, Set<String>>(Collections.unmodifiableSet(indices), Collections.unmodifiableSet(types));
+    }
+
+    private static Set<String> resolveIndices(final IndicesRequest request, final ClusterState clusterState, 
+            final IndexResolutionCache indexResolutionCache) {
+        if (log.isDebugEnabled()) {
+            log.debug("Resolve {} from {}", request.indices(), request.getClass());
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("indicesOptions {}", request.indicesOptions());
+            log.debug("raw indices {}", Arrays.toString(request.indices()));
+        }
+
+        final Set<String> indices = new HashSet<String>();
+
+        if(request.indices() == null || request.indices().length == 0 || new HashSet<String>(Arrays.asList(request.indices())).equals(NULL_SET)) {
+            
+            if(log.isDebugEnabled()) {
+                log.debug("No indices found in request, assume _all");
+            }
+            
+            indices.addAll(Arrays.asList(indexResolutionCache.concreteIndices(clusterState, DEFAULT_INDICES_OPTIONS, "*")));
+            
+        } else {
+            
+            try {
+                indices.addAll(Arrays.asList(indexResolutionCache.concreteIndices(clusterState, request.indicesOptions(), request.indices())));
+                if(log.isDebugEnabled()) {
+                    log.debug("Resolved {} to {}", request.indices(), indices);
+                }
+            } catch (final Exception e) {
+                log.debug("Cannot resolve {} (due to {}) so we use the raw values", Arrays.toString(request.indices()), e);
+                indices.addAll(Arrays.asList(request.indices()));
+            }
+        }
+        
+        return indices;
+    }
+
+    /**
+     * Everything the resolved indices and types of a sub request depend on
+     */
+    private static final class SubRequestKey {
+
+        private final String[] indices;
+        private final IndicesOptions indicesOptions;
+        private final Set<String> types;
+        private final int hashCode;
+
+        private SubRequestKey(final String[] indices, final IndicesOptions indicesOptions, final Set<String> types) {
+            this.indices = indices;
+            this.indicesOptions = indicesOptions;
+            this.types = types;
+            this.hashCode = 31 * (31 * Arrays.hashCode(this.indices) + (indicesOptions == null ? 0 : indicesOptions.hashCode())) + types.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof SubRequestKey)) {
+                return false;
+            }
+            final SubRequestKey other = (SubRequestKey) obj;
+            return hashCode == other.hashCode
+                    && (indicesOptions == null ? other.indicesOptions == null : indicesOptions.equals(other.indicesOptions))
+                    && Arrays.equals(indices, other.indices)
+                    && types.equals(other.types);
+        }
+    }
+}
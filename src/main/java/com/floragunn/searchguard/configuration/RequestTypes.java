@@ -0,0 +1,300 @@
+/*
+ * Copyright 2017 floragunn GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.floragunn.searchguard.configuration;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.elasticsearch.action.IndicesRequest;
+import org.elasticsearch.action.admin.indices.exists.types.TypesExistsRequest;
+import org.elasticsearch.action.admin.indices.mapping.get.GetFieldMappingsRequest;
+import org.elasticsearch.action.admin.indices.mapping.get.GetMappingsRequest;
+import org.elasticsearch.action.admin.indices.mapping.put.PutMappingRequest;
+import org.elasticsearch.action.admin.indices.validate.query.ValidateQueryRequest;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.explain.ExplainRequest;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.termvectors.TermVectorsRequest;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+
+/**
+ * Extracts the types of an {@link IndicesRequest} from its <code>type()</code> and <code>types()</code> methods.
+ * <p>
+ * Known request classes have a typed extractor. Other classes are inspected once for public
+ * <code>type()</code> and <code>types()</code> methods, which are then called through method handles.
+ * The extractor of a class is held in a {@link ClassValue}, so looking it up does not lock.
+ */
+final class RequestTypes {
+
+    private static final ESLogger log = Loggers.getLogger(RequestTypes.class);
+
+    private static final MethodType OBJECT_GETTER = MethodType.methodType(Object.class, Object.class);
+
+    private static final Extractor NONE = new Extractor() {
+        @Override
+        public void addTypes(final IndicesRequest request, final Set<String> types) {
+        }
+    };
+
+    private static final Map<Class<?>, Extractor> KNOWN = known();
+
+    private static final ClassValue<Extractor> EXTRACTORS = new ClassValue<Extractor>() {
+        @Override
+        protected Extractor computeValue(final Class<?> requestClass) {
+            final Extractor known = KNOWN.get(requestClass);
+            return known != null ? known : MethodHandleExtractor.create(requestClass);
+        }
+    };
+
+    private RequestTypes() {
+    }
+
+    /**
+     * Add the types of the request, null types are not added
+     */
+    static void addTypes(final IndicesRequest request, final Set<String> types) {
+        EXTRACTORS.get(request.getClass()).addTypes(request, types);
+    }
+
+    /**
+     * @return a new modifiable set with the types of the request, empty if the request has no types
+     */
+    static Set<String> types(final IndicesRequest request) {
+        final Set<String> types = new HashSet<String>();
+        addTypes(request, types);
+        return types;
+    }
+
+    private static Map<Class<?>, Extractor> known() {
+        final Map<Class<?>, Extractor> known = new HashMap<Class<?>, Extractor>();
+
+        known.put(SearchRequest.class, new TypesExtractor<SearchRequest>() {
+            @Override
+            String[] types(final SearchRequest request) {
+                return request.types();
+            }
+        });
+
+        known.put(GetRequest.class, new TypeExtractor<GetRequest>() {
+            @Override
+            String type(final GetRequest request) {
+                return request.type();
+            }
+        });
+
+        known.put(IndexRequest.class, new TypeExtractor<IndexRequest>() {
+            @Override
+            String type(final IndexRequest request) {
+                return request.type();
+            }
+        });
+
+        known.put(DeleteRequest.class, new TypeExtractor<DeleteRequest>() {
+            @Override
+            String type(final DeleteRequest request) {
+                return request.type();
+            }
+        });
+
+        known.put(UpdateRequest.class, new TypeExtractor<UpdateRequest>() {
+            @Override
+            String type(final UpdateRequest request) {
+                return request.type();
+            }
+        });
+
+        known.put(ExplainRequest.class, new TypeExtractor<ExplainRequest>() {
+            @Override
+            String type(final ExplainRequest request) {
+                return request.type();
+            }
+        });
+
+        known.put(TermVectorsRequest.class, new TypeExtractor<TermVectorsRequest>() {
+            @Override
+            String type(final TermVectorsRequest request) {
+                return request.type();
+            }
+        });
+
+        known.put(PutMappingRequest.class, new TypeExtractor<PutMappingRequest>() {
+            @Override
+            String type(final PutMappingRequest request) {
+                return request.type();
+            }
+        });
+
+        known.put(GetMappingsRequest.class, new TypesExtractor<GetMappingsRequest>() {
+            @Override
+            String[] types(final GetMappingsRequest request) {
+                return request.types();
+            }
+        });
+
+        known.put(GetFieldMappingsRequest.class, new TypesExtractor<GetFieldMappingsRequest>() {
+            @Override
+            String[] types(final GetFieldMappingsRequest request) {
+                return request.types();
+            }
+        });
+
+        known.put(ValidateQueryRequest.class, new TypesExtractor<ValidateQueryRequest>() {
+            @Override
+            String[] types(final ValidateQueryRequest request) {
+                return request.types();
+            }
+        });
+
+        known.put(TypesExistsRequest.class, new TypesExtractor<TypesExistsRequest>() {
+            @Override
+            String[] types(final TypesExistsRequest request) {
+                return request.types();
+            }
+        });
+
+        return Collections.unmodifiableMap(known);
+    }
+
+    private interface Extractor {
+        void addTypes(IndicesRequest request, Set<String> types);
+    }
+
+    private abstract static class TypeExtractor<T> implements Extractor {
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public final void addTypes(final IndicesRequest request, final Set<String> types) {
+            final String type = type((T) request);
+            if (type != null) {
+                types.add(type);
+            }
+        }
+
+        abstract String type(T request);
+    }
+
+    private abstract static class TypesExtractor<T> implements Extractor {
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public final void addTypes(final IndicesRequest request, final Set<String> types) {
+            final String[] requestTypes = types((T) request);
+            if (requestTypes != null) {
+                Collections.addAll(types, requestTypes);
+            }
+        }
+
+        abstract String[] types(T request);
+    }
+
+    private static final class MethodHandleExtractor implements Extractor {
+
+        private final Class<?> requestClass;
+        private final MethodHandle type;
+        private final MethodHandle types;
+
+        private MethodHandleExtractor(final Class<?> requestClass, final MethodHandle type, final MethodHandle types) {
+            this.requestClass = requestClass;
+            this.type = type;
+            this.types = types;
+        }
+
+        private static Extractor create(final Class<?> requestClass) {
+            final MethodHandle type = find(requestClass, "type", String.class);
+            final MethodHandle types = find(requestClass, "types", String[].class);
+
+            if (type == null && types == null) {
+                return NONE;
+            }
+
+            if (log.isDebugEnabled()) {
+                log.debug("No typed extractor for {}, use method handles", requestClass);
+            }
+
+            return new MethodHandleExtractor(requestClass, type, types);
+        }
+
+        /**
+         * @return a handle of type (Object)Object or null if there is no accessible public method with this name and return type
+         */
+        private static MethodHandle find(final Class<?> requestClass, final String name, final Class<?> returnType) {
+            try {
+                final Method method = requestClass.getMethod(name);
+
+                if (method.getReturnType() != returnType) {
+                    return null;
+                }
+
+                return MethodHandles.publicLookup().unreflect(method).asType(OBJECT_GETTER);
+            } catch (final NoSuchMethodException e) {
+                return null;
+            } catch (final IllegalAccessException e) {
+                log.error("Cannot evaluate {}() for {} due to {}", name, requestClass, e);
+                return null;
+            } catch (final SecurityException e) {
+                log.error("Cannot evaluate {}() for {} due to {}", name, requestClass, e);
+                return null;
+            }
+        }
+
+        @Override
+        public void addTypes(final IndicesRequest request, final Set<String> types) {
+
+            if (type != null) {
+                try {
+                    final String t = (String) (Object) type.invokeExact((Object) request);
+                    if (t != null) {
+                        types.add(t);
+                    }
+                } catch (final Throwable e) {
+                    rethrowError(e);
+                    log.error("Unable to invoke type() for {} due to {}", e, requestClass, e);
+                }
+            }
+
+            if (this.types != null) {
+                try {
+                    final String[] t = (String[]) (Object) this.types.invokeExact((Object) request);
+                    if (t != null) {
+                        Collections.addAll(types, t);
+                    }
+                } catch (final Throwable e) {
+                    rethrowError(e);
+                    log.error("Unable to invoke types() for {} due to {}", e, requestClass, e);
+                }
+            }
+        }
+
+        private static void rethrowError(final Throwable e) {
+            if (e instanceof Error) {
+                throw (Error) e;
+            }
+        }
+    }
+}
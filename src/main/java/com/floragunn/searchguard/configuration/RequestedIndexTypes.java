@@ -0,0 +1,170 @@
+/*
+ * Copyright 2017 floragunn GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.floragunn.searchguard.configuration;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.FixedBitSet;
+
+import com.floragunn.searchguard.configuration.PrivilegesEvaluator.IndexType;
+import com.floragunn.searchguard.support.WildcardMatcher;
+
+/**
+ * The requested index/type combinations which are not (yet) permitted.
+ * <p>
+ * Concrete indices are held as one bitset of index ordinals per requested type, so removing the indices
+ * permitted by a role pattern is a single <code>andNot</code> per type. Requested names which are not
+ * concrete indices of the metadata (like <code>_all</code> or expressions which could not be resolved)
+ * are kept as {@link IndexType} and matched by name. Not thread safe.
+ */
+final class RequestedIndexTypes {
+
+    private final IndexOrdinals ordinals;
+    private final String[] types;
+    private final FixedBitSet[] indices;
+    private final Set<IndexType> others;
+
+    RequestedIndexTypes(final IndexOrdinals ordinals, final Set<String> requestedIndices, final Set<String> requestedTypes) {
+        this.ordinals = ordinals;
+
+        final Set<String> normalizedTypes = new LinkedHashSet<String>(requestedTypes.size());
+        for (final String type : requestedTypes) {
+            normalizedTypes.add(normalizeType(type));
+        }
+        this.types = normalizedTypes.toArray(new String[normalizedTypes.size()]);
+
+        final FixedBitSet requested = new FixedBitSet(ordinals.size());
+        final List<String> unknown = new ArrayList<String>();
+
+        for (final String index : requestedIndices) {
+            final int ordinal = ordinals.ordinal(index);
+            if (ordinal >= 0) {
+                requested.set(ordinal);
+            } else {
+                unknown.add(index);
+            }
+        }
+
+        this.indices = new FixedBitSet[types.length];
+        this.others = new HashSet<IndexType>(unknown.size() * types.length);
+
+        for (int i = 0; i < types.length; i++) {
+            indices[i] = i == 0 ? requested : requested.clone();
+
+            for (final String index : unknown) {
+                others.add(new IndexType(index, types[i]));
+            }
+        }
+    }
+
+    private RequestedIndexTypes(final RequestedIndexTypes other) {
+        this.ordinals = other.ordinals;
+        this.types = other.types;
+        this.indices = new FixedBitSet[other.indices.length];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = other.indices[i].clone();
+        }
+        this.others = new HashSet<IndexType>(other.others);
+    }
+
+    RequestedIndexTypes copy() {
+        return new RequestedIndexTypes(this);
+    }
+
+    /**
+     * Remove all combinations of the permitted indices with the types matching the permitted type
+     * 
+     * @param permittedIndices ordinals of the permitted concrete indices
+     * @param permittedOthers matches the permitted names which are not concrete indices
+     * @param permittedType type, can contain wildcards
+     */
+    void remove(final FixedBitSet permittedIndices, final WildcardMatcher permittedOthers, final String permittedType) {
+        for (int i = 0; i < types.length; i++) {
+            if (typeMatches(permittedType, types[i])) {
+                indices[i].andNot(permittedIndices);
+            }
+        }
+
+        for (final Iterator<IndexType> iterator = others.iterator(); iterator.hasNext();) {
+            final IndexType indexType = iterator.next();
+            if (permittedOthers.matches(indexType.getIndex()) && typeMatches(permittedType, indexType.getType())) {
+                iterator.remove();
+            }
+        }
+    }
+
+    boolean isEmpty() {
+        if (!others.isEmpty()) {
+            return false;
+        }
+
+        for (int i = 0; i < indices.length; i++) {
+            if (indices[i].cardinality() > 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return the remaining index/type combinations
+     */
+    Set<IndexType> toSet() {
+        final Set<IndexType> result = new HashSet<IndexType>(others);
+
+        for (int i = 0; i < types.length; i++) {
+            final FixedBitSet bits = indices[i];
+            final int length = bits.length();
+
+            for (int ordinal = length == 0 ? DocIdSetIterator.NO_MORE_DOCS : bits.nextSetBit(0); ordinal != DocIdSetIterator.NO_MORE_DOCS; 
+                    ordinal = ordinal + 1 < length ? bits.nextSetBit(ordinal + 1) : DocIdSetIterator.NO_MORE_DOCS) {
+                result.add(new IndexType(ordinals.index(ordinal), types[i]));
+            }
+        }
+
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return toSet().toString();
+    }
+
+    /**
+     * @param permittedType type of a role, can contain wildcards
+     * @param requestedType requested type, <code>_all</code> is handled like <code>*</code>
+     */
+    static boolean typeMatches(final String permittedType, final String requestedType) {
+        final String normalizedPermittedType = normalizeType(permittedType);
+        final String normalizedRequestedType = normalizeType(requestedType);
+        //types are matched like the former "index#type" patterns, so a regex type is taken literally
+        return normalizedPermittedType.equals(normalizedRequestedType)
+                || WildcardMatcher.match("#" + normalizedPermittedType, "#" + normalizedRequestedType);
+    }
+
+    private static String normalizeType(final String type) {
+        return "_all".equals(type) ? "*" : type;
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright 2017 floragunn GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.floragunn.searchguard.configuration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.Pattern;
+
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.transport.TransportAddress;
+
+import com.floragunn.searchguard.support.WildcardMatcher;
+import com.floragunn.searchguard.user.User;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Immutable view of sg_roles_mapping with all patterns already compiled.
+ * <p>
+ * Exact backend role and user name entries are kept in an inverted index, only mappings with
+ * wildcard, and_backendroles or hosts entries need to be checked one by one. Mapped roles are cached
+ * per user name, backend roles and caller address. If a hosts entry can match a host name (and not only
+ * an ip address) the host name of the caller is part of the cache key too. A new instance (and so an
+ * empty cache) is compiled every time sg_roles_mapping changes.
+ */
+public final class SgRoleMappings {
+
+    private static final int MAX_CACHED_USERS = 10000;
+    private static final Pattern IPV4_PATTERN = Pattern.compile("[0-9.*?]+");
+
+    private final Map<String, Set<String>> sgRolesByBackendRole;
+    private final Map<String, Set<String>> sgRolesByUser;
+    private final List<RoleMapping> mappingsToScan;
+    private final boolean hostNamePatterns;
+    private final Cache<CacheKey, Set<String>> cache = CacheBuilder.newBuilder()
+            .maximumSize(MAX_CACHED_USERS)
+            .concurrencyLevel(4)
+            .build();
+
+    private SgRoleMappings(final Map<String, Set<String>> sgRolesByBackendRole, final Map<String, Set<String>> sgRolesByUser,
+            final List<RoleMapping> mappingsToScan) {
+        this.sgRolesByBackendRole = sgRolesByBackendRole;
+        this.sgRolesByUser = sgRolesByUser;
+        this.mappingsToScan = Collections.unmodifiableList(mappingsToScan);
+
+        boolean hostNamePatterns = false;
+        for (final RoleMapping mapping : mappingsToScan) {
+            hostNamePatterns |= mapping.hostNames.length > 0;
+        }
+        this.hostNamePatterns = hostNamePatterns;
+    }
+
+    public static SgRoleMappings compile(final Settings rolesMapping) {
+
+        final Map<String, Set<String>> sgRolesByBackendRole = new HashMap<String, Set<String>>();
+        final Map<String, Set<String>> sgRolesByUser = new HashMap<String, Set<String>>();
+        final List<RoleMapping> mappingsToScan = new ArrayList<RoleMapping>();
+
+        for (final String roleMap : rolesMapping.names()) {
+            final Settings roleMapSettings = rolesMapping.getByPrefix(roleMap);
+
+            final List<String> wildcardBackendRoles = index(roleMap, roleMapSettings.getAsArray(".backendroles"), sgRolesByBackendRole);
+            final List<String> wildcardUsers = index(roleMap, roleMapSettings.getAsArray(".users"), sgRolesByUser);
+            final String[] andBackendRoles = roleMapSettings.getAsArray(".and_backendroles");
+            final String[] hosts = roleMapSettings.getAsArray(".hosts");
+
+            if (!wildcardBackendRoles.isEmpty() || !wildcardUsers.isEmpty() || andBackendRoles.length > 0 || hosts.length > 0) {
+                mappingsToScan.add(new RoleMapping(roleMap, 
+                        WildcardMatcher.compile(andBackendRoles),
+                        WildcardMatcher.compile(wildcardBackendRoles.toArray(new String[0])),
+                        WildcardMatcher.compile(wildcardUsers.toArray(new String[0])),
+                        WildcardMatcher.compile(hosts),
+                        WildcardMatcher.compile(hostNamePatterns(hosts))));
+            }
+        }
+
+        return new SgRoleMappings(sgRolesByBackendRole, sgRolesByUser, mappingsToScan);
+    }
+
+    /**
+     * Put all exact patterns into the index and return the remaining wildcard patterns
+     */
+    private static List<String> index(final String sgRole, final String[] patterns, final Map<String, Set<String>> index) {
+
+        final List<String> wildcardPatterns = new ArrayList<String>();
+
+        for (final String pattern : patterns) {
+            if (WildcardMatcher.containsWildcard(pattern)) {
+                wildcardPatterns.add(pattern);
+            } else {
+                Set<String> sgRoles = index.get(pattern);
+                if (sgRoles == null) {
+                    sgRoles = new HashSet<String>();
+                    index.put(pattern, sgRoles);
+                }
+                sgRoles.add(sgRole);
+            }
+        }
+
+        return wildcardPatterns;
+    }
+
+    /**
+     * @return the host patterns which can match a host name, patterns which can only match an ipv4 or ipv6 address are skipped
+     */
+    private static String[] hostNamePatterns(final String[] hosts) {
+
+        final List<String> hostNamePatterns = new ArrayList<String>();
+
+        for (final String host : hosts) {
+            final boolean regex = host.length() > 1 && host.startsWith("/") && host.endsWith("/");
+            //host names contain no colons
+            if (regex || (host.indexOf(':') < 0 && !IPV4_PATTERN.matcher(host).matches())) {
+                hostNamePatterns.add(host);
+            }
+        }
+
+        return hostNamePatterns.toArray(new String[hostNamePatterns.size()]);
+    }
+
+    public Set<String> map(final User user, final TransportAddress caller) {
+
+        final Set<String> backendRoles = Collections.unmodifiableSet(new HashSet<String>(user.getRoles()));
+        final String callerAddress = caller == null ? null : caller.getAddress();
+        //only looked up if needed, may require a reverse dns lookup
+        final String callerHost = caller == null || !hostNamePatterns ? null : caller.getHost();
+        final CacheKey key = new CacheKey(user.getName(), backendRoles, callerAddress, callerHost);
+
+        try {
+            return cache.get(key, new Callable<Set<String>>() {
+                @Override
+                public Set<String> call() throws Exception {
+                    return map0(user.getName(), backendRoles, callerAddress, callerHost);
+                }
+            });
+        } catch (final ExecutionException e) {
+            //map0() does not throw checked exceptions
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private Set<String> map0(final String userName, final Set<String> backendRoles, final String callerAddress, final String callerHost) {
+
+        final Set<String> sgRoles = new TreeSet<String>();
+
+        for (final String backendRole : backendRoles) {
+            final Set<String> mapped = sgRolesByBackendRole.get(backendRole);
+            if (mapped != null) {
+                sgRoles.addAll(mapped);
+            }
+        }
+
+        final Set<String> mappedByUser = sgRolesByUser.get(userName);
+        if (mappedByUser != null) {
+            sgRoles.addAll(mappedByUser);
+        }
+
+        if (!mappingsToScan.isEmpty()) {
+            final String[] userBackendRoles = backendRoles.toArray(new String[backendRoles.size()]);
+
+            for (final RoleMapping mapping : mappingsToScan) {
+                if (!sgRoles.contains(mapping.sgRole) && mapping.matches(userName, userBackendRoles, callerAddress, callerHost)) {
+                    sgRoles.add(mapping.sgRole);
+                }
+            }
+        }
+
+        return Collections.unmodifiableSet(sgRoles);
+    }
+
+    private static final class CacheKey {
+
+        private final String userName;
+        private final Set<String> backendRoles;
+        private final String callerAddress;
+        private final String callerHost;
+        private final int hashCode;
+
+        private CacheKey(final String userName, final Set<String> backendRoles, final String callerAddress, final String callerHost) {
+            this.userName = userName;
+            this.backendRoles = backendRoles;
+            this.callerAddress = callerAddress;
+            this.callerHost = callerHost;
+            
+            int result = 31 + (userName == null ? 0 : userName.hashCode());
+            result = 31 * result + backendRoles.hashCode();
+            result = 31 * result + (callerAddress == null ? 0 : callerAddress.hashCode());
+            result = 31 * result + (callerHost == null ? 0 : callerHost.hashCode());
+            this.hashCode = result;
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof CacheKey)) {
+                return false;
+            }
+            final CacheKey other = (CacheKey) obj;
+            return hashCode == other.hashCode
+                    && (userName == null ? other.userName == null : userName.equals(other.userName))
+                    && (callerAddress == null ? other.callerAddress == null : callerAddress.equals(other.callerAddress))
+                    && (callerHost == null ? other.callerHost == null : callerHost.equals(other.callerHost))
+                    && backendRoles.equals(other.backendRoles);
+        }
+    }
+
+    private static final class RoleMapping {
+
+        private final String sgRole;
+        private final WildcardMatcher[] andBackendRoles;
+        private final WildcardMatcher[] backendRoles;
+        private final WildcardMatcher[] users;
+        private final WildcardMatcher[] hosts;
+        private final WildcardMatcher[] hostNames;
+
+        private RoleMapping(final String sgRole, final WildcardMatcher[] andBackendRoles, final WildcardMatcher[] backendRoles,
+                final WildcardMatcher[] users, final WildcardMatcher[] hosts, final WildcardMatcher[] hostNames) {
+            this.sgRole = sgRole;
+            this.andBackendRoles = andBackendRoles;
+            this.backendRoles = backendRoles;
+            this.users = users;
+            this.hosts = hosts;
+            this.hostNames = hostNames;
+        }
+
+        private boolean matches(final String userName, final String[] userBackendRoles, final String callerAddress, final String callerHost) {
+
+            if (WildcardMatcher.allPatternsMatched(andBackendRoles, userBackendRoles)) {
+                return true;
+            }
+
+            if (WildcardMatcher.matchAny(backendRoles, userBackendRoles)) {
+                return true;
+            }
+
+            if (WildcardMatcher.matchAny(users, userName)) {
+                return true;
+            }
+
+            if (callerAddress != null && WildcardMatcher.matchAny(hosts, callerAddress)) {
+                return true;
+            }
+
+            if (callerHost != null && WildcardMatcher.matchAny(hostNames, callerHost)) {
+                return true;
+            }
+
+            return false;
+        }
+    }
+}
@@ -0,0 +1,333 @@
+/*
+ * Copyright 2017 floragunn GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.floragunn.searchguard.configuration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.settings.Settings;
+
+import com.floragunn.searchguard.support.PatternSet;
+import com.floragunn.searchguard.user.User;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Immutable, typed view of sg_roles with all action groups already resolved.
+ * <p>
+ * Compiled once whenever roles or action groups change, so that {@link PrivilegesEvaluator}
+ * only has to do lookups instead of walking the flat {@link Settings} on every request.
+ */
+public final class SgRoles {
+
+    private static final ESLogger log = Loggers.getLogger(SgRoles.class);
+    private static final Set<String> DLSFLS = ImmutableSet.of("_dls_", "_fls_");
+    private static final String[] EMPTY = new String[0];
+
+    private final Map<String, SgRole> roles;
+
+    private SgRoles(final Map<String, SgRole> roles) {
+        this.roles = Collections.unmodifiableMap(roles);
+    }
+
+    public static SgRoles compile(final Settings rolesSettings, final ActionGroupHolder ah) {
+
+        final Map<String, SgRole> roles = new HashMap<String, SgRole>();
+
+        for (final String sgRole : rolesSettings.names()) {
+            try {
+                final SgRole role = SgRole.compile(sgRole, rolesSettings, ah);
+                if (role != null) {
+                    roles.put(sgRole, role);
+                }
+            } catch (final Exception e) {
+                log.error("Unable to compile sg_role {} due to {}, role will be ignored", e, sgRole, e.toString());
+            }
+        }
+
+        return new SgRoles(roles);
+    }
+
+    /**
+     * @return the compiled role or null if the role is not defined or empty
+     */
+    public SgRole getRole(final String name) {
+        return roles.get(name);
+    }
+
+    public Set<String> getRoleNames() {
+        return roles.keySet();
+    }
+
+    /**
+     * @return true if the permissions of at least one of the given roles depend on the user name
+     */
+    public boolean isUserSpecific(final Set<String> sgRoles) {
+        for (final String sgRole : sgRoles) {
+            final SgRole role = roles.get(sgRole);
+            if (role != null && role.isUserSpecific()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String[] resolveActions(final String[] actions, final ActionGroupHolder ah) {
+        final Set<String> resolvedActions = new HashSet<String>();
+        for (int i = 0; i < actions.length; i++) {
+            final String string = actions[i];
+            final Set<String> groups = ah.getGroupMembers(string);
+            if (groups.isEmpty()) {
+                resolvedActions.add(string);
+            } else {
+                resolvedActions.addAll(groups);
+            }
+        }
+
+        return resolvedActions.toArray(new String[resolvedActions.size()]);
+    }
+
+    public static final class SgRole {
+
+        private final String name;
+        private final String[] clusterPerms;
+        private final PatternSet clusterPermPatterns;
+        private final List<IndexPattern> indexPatterns;
+        private final Map<String, Boolean> tenants;
+        private final boolean userSpecific;
+        private final boolean dlsOrFls;
+
+        private SgRole(final String name, final String[] clusterPerms, final List<IndexPattern> indexPatterns,
+                final Map<String, Boolean> tenants) {
+            this.name = name;
+            this.clusterPerms = clusterPerms;
+            this.clusterPermPatterns = PatternSet.compile(clusterPerms);
+            this.indexPatterns = Collections.unmodifiableList(indexPatterns);
+            
+            boolean userSpecific = false;
+            for (final IndexPattern indexPattern : indexPatterns) {
+                userSpecific |= indexPattern.isUserSpecific() || indexPattern.isDlsUserSpecific();
+            }
+            this.userSpecific = userSpecific;
+            
+            boolean dlsOrFls = false;
+            for (final IndexPattern indexPattern : indexPatterns) {
+                dlsOrFls |= indexPattern.getDlsQuery() != null || indexPattern.hasFlsFields();
+            }
+            this.dlsOrFls = dlsOrFls;
+            this.tenants = Collections.unmodifiableMap(tenants);
+        }
+
+        private static SgRole compile(final String sgRole, final Settings rolesSettings, final ActionGroupHolder ah) {
+            final Settings sgRoleSettings = rolesSettings.getByPrefix(sgRole);
+
+            if (sgRoleSettings.names().isEmpty()) {
+                return null;
+            }
+
+            final String[] clusterPerms = resolveActions(sgRoleSettings.getAsArray(".cluster", EMPTY), ah);
+
+            final Map<String, Settings> permittedAliasesIndices = sgRoleSettings.getGroups(".indices");
+            final List<IndexPattern> indexPatterns = new ArrayList<IndexPattern>(permittedAliasesIndices.size());
+
+            for (final String indexPattern : permittedAliasesIndices.keySet()) {
+                indexPatterns.add(IndexPattern.compile(indexPattern, permittedAliasesIndices.get(indexPattern), ah));
+            }
+
+            final Map<String, Boolean> tenants = new HashMap<String, Boolean>();
+            final Settings tenantSettings = rolesSettings.getByPrefix(sgRole + ".tenants.");
+
+            if (tenantSettings != null) {
+                for (final String tenant : tenantSettings.names()) {
+                    tenants.put(tenant, "RW".equalsIgnoreCase(tenantSettings.get(tenant, "RO")));
+                }
+            }
+
+            return new SgRole(sgRole, clusterPerms, indexPatterns, tenants);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean impliesClusterPermission(final String action) {
+            return clusterPermPatterns.matchesAny(action);
+        }
+
+        /**
+         * @return true if index patterns or dls queries of this role contain user name placeholders
+         */
+        public boolean isUserSpecific() {
+            return userSpecific;
+        }
+
+        /**
+         * @return true if at least one index pattern of this role has a dls query or fls fields
+         */
+        public boolean hasDlsOrFls() {
+            return dlsOrFls;
+        }
+
+        public String[] getClusterPerms() {
+            return clusterPerms.clone();
+        }
+
+        public List<IndexPattern> getIndexPatterns() {
+            return indexPatterns;
+        }
+
+        /**
+         * @return tenant names mapped to true for read/write and false for read only access
+         */
+        public Map<String, Boolean> getTenants() {
+            return tenants;
+        }
+
+        @Override
+        public String toString() {
+            return "SgRole [name=" + name + ", indexPatterns=" + indexPatterns + ", tenants=" + tenants + "]";
+        }
+    }
+
+    public static final class IndexPattern {
+
+        private final String pattern;
+        private final boolean userSpecific;
+        private final String dlsQuery;
+        private final String[] flsFields;
+        private final List<TypePerm> typePerms;
+
+        private IndexPattern(final String pattern, final String dlsQuery, final String[] flsFields, final List<TypePerm> typePerms) {
+            this.pattern = pattern;
+            this.userSpecific = pattern.contains("${user.name}") || pattern.contains("${user_name}");
+            this.dlsQuery = dlsQuery == null || dlsQuery.length() == 0 ? null : dlsQuery;
+            this.flsFields = flsFields == null ? EMPTY : flsFields;
+            this.typePerms = Collections.unmodifiableList(typePerms);
+        }
+
+        private static IndexPattern compile(final String indexPattern, final Settings indexSettings, final ActionGroupHolder ah) {
+            final Set<String> permittedTypes = new HashSet<String>(indexSettings.names());
+            permittedTypes.removeAll(DLSFLS);
+
+            final List<TypePerm> typePerms = new ArrayList<TypePerm>(permittedTypes.size());
+
+            for (final String type : permittedTypes) {
+                typePerms.add(new TypePerm(type, resolveActions(indexSettings.getAsArray(type), ah)));
+            }
+
+            return new IndexPattern(indexPattern, indexSettings.get("_dls_"), indexSettings.getAsArray("_fls_"), typePerms);
+        }
+
+        /**
+         * @return the raw pattern as configured, may contain user name placeholders
+         */
+        public String getPattern() {
+            return pattern;
+        }
+
+        /**
+         * @return the pattern with user name placeholders replaced for the given user
+         */
+        public String getPattern(final User user) {
+            if (!userSpecific) {
+                return pattern;
+            }
+
+            return pattern.replace("${user.name}", user.getName()).replace("${user_name}", user.getName());
+        }
+
+        public boolean isUserSpecific() {
+            return userSpecific;
+        }
+
+        /**
+         * @return the dls query (placeholders not replaced) or null
+         */
+        public String getDlsQuery() {
+            return dlsQuery;
+        }
+
+        public boolean isDlsUserSpecific() {
+            return dlsQuery != null && (dlsQuery.contains("${user.name}") || dlsQuery.contains("${user_name}"));
+        }
+
+        public String getDlsQuery(final User user) {
+            if (dlsQuery == null) {
+                return null;
+            }
+
+            //TODO use UserPropertyReplacer, make it registerable for ldap user
+            return dlsQuery.replace("${user.name}", user.getName()).replace("${user_name}", user.getName());
+        }
+
+        public String[] getFlsFields() {
+            return flsFields.clone();
+        }
+
+        public boolean hasFlsFields() {
+            return flsFields.length > 0;
+        }
+
+        public List<TypePerm> getTypePerms() {
+            return typePerms;
+        }
+
+        @Override
+        public String toString() {
+            return "IndexPattern [pattern=" + pattern + ", dls=" + (dlsQuery != null) + ", fls=" + (flsFields.length > 0) + ", typePerms="
+                    + typePerms + "]";
+        }
+    }
+
+    public static final class TypePerm {
+
+        private final String type;
+        private final String[] perms;
+        private final PatternSet permPatterns;
+
+        private TypePerm(final String type, final String[] perms) {
+            this.type = type;
+            this.perms = perms;
+            this.permPatterns = PatternSet.compile(perms);
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public boolean impliesAction(final String action) {
+            return permPatterns.matchesAny(action);
+        }
+
+        public String[] getPerms() {
+            return perms.clone();
+        }
+
+        @Override
+        public String toString() {
+            return "TypePerm [type=" + type + ", perms=" + Arrays.toString(perms) + "]";
+        }
+    }
+}
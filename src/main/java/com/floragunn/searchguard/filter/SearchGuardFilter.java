@@ -38,6 +38,7 @@ import com.floragunn.searchguard.configuration.AdminDNs;
 import com.floragunn.searchguard.configuration.DlsFlsRequestValve;
 import com.floragunn.searchguard.configuration.PrivilegesEvaluator;
 import com.floragunn.searchguard.support.ConfigConstants;
+import com.floragunn.searchguard.support.EncodedHeaders;
 import com.floragunn.searchguard.support.HeaderHelper;
 import com.floragunn.searchguard.user.User;
 
@@ -55,6 +56,7 @@ public class SearchGuardFilter implements ActionFilter {
     private final AdminDNs adminDns;
     private Provider<DlsFlsRequestValve> dlsFlsValve;
     private final AuditLog auditLog;
+    private final boolean compactSerialization;
 
     @Inject
     public SearchGuardFilter(final Settings settings, final Provider<PrivilegesEvaluator> evalp, final AdminDNs adminDns,
@@ -64,6 +66,7 @@ public class SearchGuardFilter implements ActionFilter {
         this.adminDns = adminDns;
         this.dlsFlsValve = dlsFlsValve;
         this.auditLog = auditLog;
+        this.compactSerialization = settings.getAsBoolean(ConfigConstants.SG_COMPACT_SERIALIZATION, false);
     }
 
     @Override
@@ -86,6 +89,16 @@ public class SearchGuardFilter implements ActionFilter {
         
         User user = request.getFromContext(ConfigConstants.SG_USER);
         
+        if(user != null) {
+            //sub and shard level requests copy the context, so they all share the same lazily encoded headers
+            final Object remoteAddress = request.getFromContext(ConfigConstants.SG_REMOTE_ADDRESS);
+            final EncodedHeaders encodedHeaders = request.getFromContext(ConfigConstants.SG_ENCODED_HEADERS);
+            
+            if(encodedHeaders == null || !encodedHeaders.isFor(user, remoteAddress, compactSerialization)) {
+                request.putInContext(ConfigConstants.SG_ENCODED_HEADERS, new EncodedHeaders(user, remoteAddress, compactSerialization));
+            }
+        }
+        
         if(user == null && request.remoteAddress() == null) {
             user = User.SG_INTERNAL;
         }
@@ -17,6 +17,9 @@
 
 package com.floragunn.searchguard.filter;
 
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
 import org.elasticsearch.rest.BytesRestResponse;
 import org.elasticsearch.rest.RestChannel;
 import org.elasticsearch.rest.RestFilter;
@@ -31,6 +34,7 @@ import com.floragunn.searchguard.support.HeaderHelper;
 
 public class SearchGuardRestFilter extends RestFilter {
 
+    private static final ESLogger log = Loggers.getLogger(SearchGuardRestFilter.class);
     private final BackendRegistry registry;
     private final AuditLog auditLog;
 
@@ -51,18 +55,42 @@ public class SearchGuardRestFilter extends RestFilter {
             return;
         }
         
-        if(request.method() != Method.OPTIONS) {
-            
-            if (!registry.authenticate(request, channel)) {
-                // another roundtrip
-                return;
-            }
-            
+        if(request.method() == Method.OPTIONS) {
+            filterChain.continueProcessing(request, channel);
+            return;
         }
         
-        
-        
-        filterChain.continueProcessing(request, channel);
+        //may continue on an authentication thread if backends must be called
+        registry.authenticate(request, channel, new ActionListener<Boolean>() {
+
+            @Override
+            public void onResponse(final Boolean authenticated) {
+                
+                if (!authenticated) {
+                    // another roundtrip
+                    return;
+                }
+                
+                try {
+                    filterChain.continueProcessing(request, channel);
+                } catch (final Exception e) {
+                    sendError(channel, e);
+                }
+            }
+
+            @Override
+            public void onFailure(final Throwable e) {
+                sendError(channel, e);
+            }
+        });
+    }
+    
+    private void sendError(final RestChannel channel, final Throwable e) {
+        try {
+            channel.sendResponse(new BytesRestResponse(channel, e));
+        } catch (final Exception e1) {
+            log.error("Failed to send failure response", e1);
+        }
     }
 
 }
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2017 floragunn GmbH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.floragunn.searchguard.rest;
+
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+
+import java.io.IOException;
+
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.inject.Provider;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.transport.TransportAddress;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.BytesRestResponse;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.transport.TransportService;
+
+import com.floragunn.searchguard.auth.BackendRegistry;
+import com.floragunn.searchguard.auth.UserCache;
+import com.floragunn.searchguard.configuration.AdminDNs;
+import com.floragunn.searchguard.configuration.PrivilegesEvaluator;
+import com.floragunn.searchguard.support.ConfigConstants;
+import com.floragunn.searchguard.transport.SearchGuardTransportService;
+import com.floragunn.searchguard.user.User;
+import com.google.common.cache.CacheStats;
+
+/**
+ * Statistics of the user and authorization caches of the local node.
+ * Only available for admins or users with the cluster permission {@value #PERMISSION}.
+ */
+public class SearchGuardCacheStatsAction extends BaseRestHandler {
+
+    public static final String PERMISSION = "cluster:monitor/searchguard/cache/stats";
+    
+    private final Provider<BackendRegistry> backendRegistry;
+    private final Provider<PrivilegesEvaluator> evaluator;
+    private final Provider<TransportService> transportService;
+    private final AdminDNs adminDns;
+    
+    @Inject
+    public SearchGuardCacheStatsAction(final Settings settings, final RestController controller, final Client client, 
+            final Provider<BackendRegistry> backendRegistry, final Provider<PrivilegesEvaluator> evaluator, 
+            final Provider<TransportService> transportService, final AdminDNs adminDns) {
+        super(settings, controller, client);
+        this.backendRegistry = backendRegistry;
+        this.evaluator = evaluator;
+        this.transportService = transportService;
+        this.adminDns = adminDns;
+        controller.registerHandler(GET, "/_searchguard/cachestats", this);
+    }
+
+    @Override
+    protected void handleRequest(final RestRequest request, final RestChannel channel, final Client client) throws Exception {
+
+        BytesRestResponse response = null;
+        XContentBuilder builder = channel.newBuilder();
+
+        try {
+
+            final User user = request.getFromContext(ConfigConstants.SG_USER);
+            final TransportAddress remoteAddress = request.getFromContext(ConfigConstants.SG_REMOTE_ADDRESS);
+            
+            if(user == null || (!adminDns.isAdmin(user.getName()) && !evaluator.get().hasClusterPermission(user, remoteAddress, PERMISSION))) {
+                builder.startObject();
+                builder.field("error", "no permissions for " + PERMISSION);
+                builder.endObject();
+                channel.sendResponse(new BytesRestResponse(RestStatus.FORBIDDEN, builder));
+                return;
+            }
+
+            builder.startObject();
+            
+            builder.startObject("user_caches");
+            for(UserCache<?> cache: backendRegistry.get().getUserCaches()) {
+                builder.startObject(cache.getName());
+                builder.field("size", cache.size());
+                builder.field("record_stats", cache.isRecordStats());
+                builder.field("refresh_ahead", cache.isRefreshAhead());
+                stats(builder, cache.stats());
+                builder.field("negative_hit_count", cache.getNegativeHitCount());
+                builder.field("refresh_count", cache.getRefreshCount());
+                builder.field("refresh_failure_count", cache.getRefreshFailureCount());
+                builder.field("refresh_rejected_count", cache.getRefreshRejectedCount());
+                builder.endObject();
+            }
+            builder.endObject();
+            
+            builder.startObject("failure_backoff");
+            builder.field("rejected_count", backendRegistry.get().getFailureBackoffRejectedCount());
+            builder.endObject();
+            
+            builder.startObject("authorization_decisions");
+            stats(builder, evaluator.get().getDecisionCacheStats());
+            builder.endObject();
+            
+            builder.startObject("index_resolution");
+            stats(builder, evaluator.get().getIndexResolutionCacheStats());
+            builder.endObject();
+            
+            //deserialized user headers of requests received from other nodes
+            final TransportService ts = transportService.get();
+            if(ts instanceof SearchGuardTransportService) {
+                builder.startObject("transport_user_headers");
+                stats(builder, ((SearchGuardTransportService) ts).getUserCacheStats());
+                builder.endObject();
+            }
+            
+            builder.endObject();
+
+            response = new BytesRestResponse(RestStatus.OK, builder);
+        } catch (final Exception e1) {
+            builder = channel.newBuilder();
+            builder.startObject();
+            builder.field("error", e1.toString());
+            builder.endObject();
+            response = new BytesRestResponse(RestStatus.INTERNAL_SERVER_ERROR, builder);
+        }
+
+        channel.sendResponse(response);
+    }
+    
+    private static void stats(final XContentBuilder builder, final CacheStats stats) throws IOException {
+        builder.field("hit_count", stats.hitCount());
+        builder.field("miss_count", stats.missCount());
+        builder.field("hit_rate", stats.hitRate());
+        builder.field("load_success_count", stats.loadSuccessCount());
+        builder.field("load_exception_count", stats.loadExceptionCount());
+        builder.field("total_load_time_ms", stats.totalLoadTime() / 1000000L);
+        builder.field("average_load_penalty_ms", stats.averageLoadPenalty() / 1000000d);
+        builder.field("eviction_count", stats.evictionCount());
+    }
+}
@@ -31,22 +31,59 @@ import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
 
 import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
 
 import com.floragunn.searchguard.user.User;
 import com.google.common.io.BaseEncoding;
 
 public class Base64Helper {
 
+    /**
+     * First byte of the compact format. Java serialization streams always start with 0xACED
+     */
+    private static final byte COMPACT_MAGIC = (byte) 0xC5;
+    private static final byte COMPACT_VERSION = 1;
+
+    private static final byte TYPE_USER = 1;
+    private static final byte TYPE_INET_SOCKET_ADDRESS = 2;
+    private static final byte TYPE_STRING_SET_MAP = 3;
+
+    /**
+     * Always uses java serialization, which can be read by all versions
+     */
     public static String serializeObject(final Serializable object) {
+        return serializeObject(object, false);
+    }
+
+    /**
+     * @param compact if true {@link User} (but not subclasses of it), {@link InetSocketAddress} and {@code Map<String, Set<String>>}
+     * are written in a compact binary format, all other objects are always written with java serialization.
+     * Nodes prior to this format can only read java serialization.
+     */
+    public static String serializeObject(final Serializable object, final boolean compact) {
 
         if (object == null) {
             throw new IllegalArgumentException("object must not be null");
         }
 
+        if (compact) {
+            final byte[] bytes = serializeCompact(object);
+
+            if (bytes != null) {
+                return BaseEncoding.base64().encode(bytes);
+            }
+        }
+
         try {
             final ByteArrayOutputStream bos = new ByteArrayOutputStream();
             final ObjectOutputStream out = new ObjectOutputStream(bos);
@@ -68,6 +105,11 @@ public class Base64Helper {
 
         try {
             final byte[] userr = BaseEncoding.base64().decode(string);
+            
+            if (userr.length > 0 && userr[0] == COMPACT_MAGIC) {
+                return deserializeCompact(userr);
+            }
+            
             final ByteArrayInputStream bis = new ByteArrayInputStream(userr);
             in = new SafeObjectInputStream(bis);
             return (Serializable) in.readObject();
@@ -84,6 +126,172 @@ public class Base64Helper {
         }
     }
     
+    /**
+     * @return the serialized bytes or null if the object can not be written in the compact format
+     */
+    private static byte[] serializeCompact(final Serializable object) {
+
+        final byte type;
+
+        if (object.getClass() == User.class) {
+            type = TYPE_USER;
+        } else if (object.getClass() == InetSocketAddress.class) {
+            type = TYPE_INET_SOCKET_ADDRESS;
+        } else if (isStringSetMap(object)) {
+            type = TYPE_STRING_SET_MAP;
+        } else {
+            return null;
+        }
+
+        try (BytesStreamOutput out = new BytesStreamOutput(64)) {
+            out.writeByte(COMPACT_MAGIC);
+            out.writeByte(COMPACT_VERSION);
+            out.writeByte(type);
+
+            switch (type) {
+            case TYPE_USER:
+                writeUser(out, (User) object);
+                break;
+            case TYPE_INET_SOCKET_ADDRESS:
+                writeInetSocketAddress(out, (InetSocketAddress) object);
+                break;
+            default:
+                writeStringSetMap(out, (Map<?, ?>) object);
+                break;
+            }
+
+            return out.bytes().toBytes();
+        } catch (final IOException e) {
+            throw new ElasticsearchException(e.toString());
+        }
+    }
+
+    private static Serializable deserializeCompact(final byte[] bytes) throws IOException {
+
+        final StreamInput in = StreamInput.wrap(bytes);
+        in.readByte(); //magic
+        final byte version = in.readByte();
+
+        if (version != COMPACT_VERSION) {
+            throw new IOException("Unsupported serialization version " + version);
+        }
+
+        final byte type = in.readByte();
+
+        switch (type) {
+        case TYPE_USER:
+            return readUser(in);
+        case TYPE_INET_SOCKET_ADDRESS:
+            return readInetSocketAddress(in);
+        case TYPE_STRING_SET_MAP:
+            return readStringSetMap(in);
+        default:
+            throw new IOException("Unknown serialized type " + type);
+        }
+    }
+
+    private static boolean isStringSetMap(final Serializable object) {
+
+        if (!(object instanceof Map)) {
+            return false;
+        }
+
+        for (final Entry<?, ?> entry : ((Map<?, ?>) object).entrySet()) {
+            if (!(entry.getKey() instanceof String) || !(entry.getValue() instanceof Set)) {
+                return false;
+            }
+
+            for (final Object value : (Set<?>) entry.getValue()) {
+                if (!(value instanceof String)) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    private static void writeUser(final StreamOutput out, final User user) throws IOException {
+        out.writeString(user.getName());
+        final Set<String> roles = user.getRoles();
+        out.writeVInt(roles.size());
+        for (final String role : roles) {
+            out.writeOptionalString(role);
+        }
+        out.writeOptionalString(user.getRequestedTenant());
+    }
+
+    private static User readUser(final StreamInput in) throws IOException {
+        final String name = in.readString();
+        final int size = in.readVInt();
+        final List<String> roles = new ArrayList<String>(size);
+        for (int i = 0; i < size; i++) {
+            roles.add(in.readOptionalString());
+        }
+        return User.builder(name).roles(roles).requestedTenant(in.readOptionalString()).build();
+    }
+
+    private static void writeInetSocketAddress(final StreamOutput out, final InetSocketAddress address) throws IOException {
+        //getHostString() never triggers a reverse lookup
+        out.writeString(address.getHostString());
+        out.writeVInt(address.getPort());
+
+        final InetAddress inetAddress = address.getAddress();
+
+        if (inetAddress == null) {
+            //unresolved
+            out.writeBoolean(false);
+        } else {
+            out.writeBoolean(true);
+            out.writeByteArray(inetAddress.getAddress());
+        }
+    }
+
+    private static InetSocketAddress readInetSocketAddress(final StreamInput in) throws IOException {
+        final String hostString = in.readString();
+        final int port = in.readVInt();
+
+        if (!in.readBoolean()) {
+            return InetSocketAddress.createUnresolved(hostString, port);
+        }
+
+        final byte[] ip = in.readByteArray();
+        final InetAddress ipOnly = InetAddress.getByAddress(ip);
+
+        if (hostString.equals(ipOnly.getHostAddress())) {
+            return new InetSocketAddress(ipOnly, port);
+        }
+
+        return new InetSocketAddress(InetAddress.getByAddress(hostString, ip), port);
+    }
+
+    private static void writeStringSetMap(final StreamOutput out, final Map<?, ?> map) throws IOException {
+        out.writeVInt(map.size());
+        for (final Entry<?, ?> entry : map.entrySet()) {
+            out.writeString((String) entry.getKey());
+            final Set<?> values = (Set<?>) entry.getValue();
+            out.writeVInt(values.size());
+            for (final Object value : values) {
+                out.writeString((String) value);
+            }
+        }
+    }
+
+    private static HashMap<String, Set<String>> readStringSetMap(final StreamInput in) throws IOException {
+        final int size = in.readVInt();
+        final HashMap<String, Set<String>> map = new HashMap<String, Set<String>>(size * 2);
+        for (int i = 0; i < size; i++) {
+            final String key = in.readString();
+            final int valueSize = in.readVInt();
+            final Set<String> values = new HashSet<String>(valueSize * 2);
+            for (int j = 0; j < valueSize; j++) {
+                values.add(in.readString());
+            }
+            map.put(key, values);
+        }
+        return map;
+    }
+    
     private final static class SafeObjectInputStream extends ObjectInputStream {
 
         private static final List<String> SAFE_CLASSES = new ArrayList<>();
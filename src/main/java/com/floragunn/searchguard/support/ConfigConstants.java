@@ -61,10 +61,64 @@ public class ConfigConstants {
     public static final String SG_USER_HEADER = SG_CONFIG_PREFIX+"user_header";
     
     public static final String SG_XFF_DONE = SG_CONFIG_PREFIX+"xff_done";
+    
+    /**
+     * Shared, lazily encoded user and remote address headers (see EncodedHeaders)
+     */
+    public static final String SG_ENCODED_HEADERS = SG_CONFIG_PREFIX+"encoded_headers";
 
     public static final String SG_CONFIG_INDEX = "searchguard.config_index_name";
     public static final String SG_DEFAULT_CONFIG_INDEX = "searchguard";
     
     public static final String SG_INTERCLUSTER_REQUEST_EVALUATOR_CLASS = "searchguard.cert.intercluster_request_evaluator_class";
     
+    /**
+     * Max number of index and type names held by the authorization decision cache (default 100000), 0 disables the cache
+     */
+    public static final String SG_AUTHZ_DECISION_CACHE_MAX_INDICES = "searchguard.authz.decision_cache.max_indices";
+    
+    /**
+     * Max number of index names held by the index resolution cache of the privileges evaluator (default 1000000), 0 disables the cache
+     */
+    public static final String SG_AUTHZ_INDEX_RESOLUTION_CACHE_MAX_INDICES = "searchguard.authz.index_resolution_cache.max_indices";
+    
+    /**
+     * Write user, remote address and dls/fls headers in the compact binary format (default false).
+     * Both formats are always read, enable this only when all nodes of the cluster can read the compact format.
+     */
+    public static final String SG_COMPACT_SERIALIZATION = "searchguard.compact_serialization";
+    
+    /**
+     * Max number of deserialized users cached on the receiving side of inter node requests, 0 disables the cache
+     */
+    public static final String SG_TRANSPORT_USER_CACHE_MAX_SIZE = "searchguard.transport.user_cache.max_size";
+    
+    /**
+     * Number of threads (default 2) and queue size (default 1000) for reloading cached users in the background,
+     * see {@link com.floragunn.searchguard.auth.UserCache}
+     */
+    public static final String SG_AUTHC_REFRESH_THREADS = "searchguard.authc.refresh.threads";
+    public static final String SG_AUTHC_REFRESH_QUEUE_SIZE = "searchguard.authc.refresh.queue_size";
+    
+    /**
+     * Number of threads (default 4) and queue size (default 1000) for calling the authorization backends in parallel and with a timeout
+     */
+    public static final String SG_AUTHZ_THREADS = "searchguard.authz.threads";
+    public static final String SG_AUTHZ_QUEUE_SIZE = "searchguard.authz.queue_size";
+    
+    /**
+     * Authenticate rest requests which can not be served from the user cache on a dedicated thread pool 
+     * instead of the http worker thread (default true). Pool size defaults to the number of processors, queue size to 1000.
+     */
+    public static final String SG_AUTHC_ASYNC = "searchguard.authc.async";
+    public static final String SG_AUTHC_THREADS = "searchguard.authc.threads";
+    public static final String SG_AUTHC_QUEUE_SIZE = "searchguard.authc.queue_size";
+    
+    /**
+     * Max number of successfully verified internal user passwords remembered to skip BCrypt (default 10000, 0 disables)
+     * and how long they are remembered (default 60 minutes)
+     */
+    public static final String SG_INTERNAL_PASSWORD_CACHE_MAX_SIZE = "searchguard.authc.internal.password_cache.max_size";
+    public static final String SG_INTERNAL_PASSWORD_CACHE_TTL_MINUTES = "searchguard.authc.internal.password_cache.ttl_minutes";
+    
 }
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2017 floragunn GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.floragunn.searchguard.support;
+
+import org.elasticsearch.common.transport.InetSocketTransportAddress;
+
+import com.floragunn.searchguard.user.User;
+
+/**
+ * Lazily encoded user and remote address headers which are shared by all requests derived
+ * from one originating request (the request context is copied to sub and shard level requests).
+ * So the user is serialized only once no matter to how many shards a request fans out.
+ * <p>
+ * Only valid as long as the context still holds the very same user and remote address instances,
+ * see {@link #isFor(User, Object, boolean)}.
+ */
+public final class EncodedHeaders {
+
+    private final User user;
+    private final Object remoteAddress;
+    private final boolean compact;
+    private volatile String userHeader;
+    private volatile String remoteAddressHeader;
+
+    public EncodedHeaders(final User user, final Object remoteAddress, final boolean compact) {
+        this.user = user;
+        this.remoteAddress = remoteAddress;
+        this.compact = compact;
+    }
+
+    public boolean isFor(final User user, final Object remoteAddress, final boolean compact) {
+        return this.user == user && this.remoteAddress == remoteAddress && this.compact == compact;
+    }
+
+    public String getUserHeader() {
+        String header = userHeader;
+        if (header == null) {
+            //racy but idempotent
+            header = userHeader = Base64Helper.serializeObject(user, compact);
+        }
+        return header;
+    }
+
+    /**
+     * @return the encoded remote address or null if the remote address is not a InetSocketTransportAddress
+     */
+    public String getRemoteAddressHeader() {
+        if (!(remoteAddress instanceof InetSocketTransportAddress)) {
+            return null;
+        }
+
+        String header = remoteAddressHeader;
+        if (header == null) {
+            header = remoteAddressHeader = Base64Helper.serializeObject(((InetSocketTransportAddress) remoteAddress).address(), compact);
+        }
+        return header;
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright 2017 floragunn GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.floragunn.searchguard.support;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Immutable set of wildcard patterns (same syntax as {@link WildcardMatcher}) which can be matched
+ * against a candidate in one pass instead of testing every pattern on its own.
+ * <p>
+ * Exact patterns are looked up in a hash map, 'prefix*' and '*suffix' patterns are stored in a
+ * trie which is walked forward (or backward) over the candidate once. Only patterns of other
+ * shapes (regex, '?', inner stars) are tested one by one.
+ */
+public final class PatternSet {
+
+    private static final PatternSet EMPTY = new PatternSet(new String[0]);
+
+    private final String[] patterns;
+    private final String matchAllPattern;
+    private final Map<String, String> exact = new HashMap<String, String>();
+    private final Node prefixes;
+    private final Node suffixes;
+    private final WildcardMatcher[] others;
+
+    private PatternSet(final String[] patterns) {
+        this.patterns = patterns;
+
+        String matchAllPattern = null;
+        final TrieBuilder prefixBuilder = new TrieBuilder();
+        final TrieBuilder suffixBuilder = new TrieBuilder();
+        final List<WildcardMatcher> others = new ArrayList<WildcardMatcher>();
+
+        for (final String pattern : patterns) {
+
+            if (pattern == null) {
+                continue;
+            }
+
+            if (pattern.length() > 1 && pattern.startsWith("/") && pattern.endsWith("/")) {
+                others.add(WildcardMatcher.compile(pattern));
+            } else if (pattern.indexOf('?') > -1) {
+                others.add(WildcardMatcher.compile(pattern));
+            } else if (pattern.indexOf('*') == -1) {
+                exact.put(pattern, pattern);
+            } else {
+
+                int start = 0;
+                while (start < pattern.length() && pattern.charAt(start) == '*') {
+                    start++;
+                }
+
+                if (start == pattern.length()) {
+                    if (matchAllPattern == null) {
+                        matchAllPattern = pattern;
+                    }
+                    continue;
+                }
+
+                int end = pattern.length();
+                while (pattern.charAt(end - 1) == '*') {
+                    end--;
+                }
+
+                final String literal = pattern.substring(start, end);
+
+                if (literal.indexOf('*') > -1 || (start > 0 && end < pattern.length())) {
+                    others.add(WildcardMatcher.compile(pattern));
+                } else if (start == 0) {
+                    prefixBuilder.add(literal, false, pattern);
+                } else {
+                    suffixBuilder.add(literal, true, pattern);
+                }
+            }
+        }
+
+        this.matchAllPattern = matchAllPattern;
+        this.prefixes = prefixBuilder.build();
+        this.suffixes = suffixBuilder.build();
+        this.others = others.toArray(new WildcardMatcher[others.size()]);
+    }
+
+    public static PatternSet compile(final String[] patterns) {
+        if (patterns == null || patterns.length == 0) {
+            return EMPTY;
+        }
+        return new PatternSet(patterns.clone());
+    }
+
+    public static PatternSet compile(final Collection<String> patterns) {
+        if (patterns == null || patterns.isEmpty()) {
+            return EMPTY;
+        }
+        return new PatternSet(patterns.toArray(new String[patterns.size()]));
+    }
+
+    /**
+     * @return true if at least one of the patterns matches the candidate
+     */
+    public boolean matchesAny(final String candidate) {
+
+        if (candidate == null) {
+            return false;
+        }
+
+        if (matchAllPattern != null || exact.containsKey(candidate)) {
+            return true;
+        }
+
+        if (prefixes != null && prefixes.walk(candidate, false, null)) {
+            return true;
+        }
+
+        if (suffixes != null && suffixes.walk(candidate, true, null)) {
+            return true;
+        }
+
+        return WildcardMatcher.matchAny(others, candidate);
+    }
+
+    public boolean matchesAny(final String[] candidates) {
+        for (int i = 0; i < candidates.length; i++) {
+            if (matchesAny(candidates[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return all patterns which match the candidate, never null
+     */
+    public Set<String> getMatches(final String candidate) {
+
+        if (candidate == null) {
+            return Collections.emptySet();
+        }
+
+        final Set<String> matches = new LinkedHashSet<String>();
+
+        if (matchAllPattern != null) {
+            matches.add(matchAllPattern);
+        }
+
+        final String exactMatch = exact.get(candidate);
+
+        if (exactMatch != null) {
+            matches.add(exactMatch);
+        }
+
+        if (prefixes != null) {
+            prefixes.walk(candidate, false, matches);
+        }
+
+        if (suffixes != null) {
+            suffixes.walk(candidate, true, matches);
+        }
+
+        for (int i = 0; i < others.length; i++) {
+            if (others[i].matches(candidate)) {
+                matches.add(others[i].getPattern());
+            }
+        }
+
+        return matches;
+    }
+
+    public boolean isEmpty() {
+        return patterns.length == 0;
+    }
+
+    public String[] getPatterns() {
+        return patterns.clone();
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(patterns);
+    }
+
+    private static final class Node {
+
+        private final char[] labels;
+        private final Node[] children;
+        private final String[] terminals;
+
+        private Node(final char[] labels, final Node[] children, final String[] terminals) {
+            this.labels = labels;
+            this.children = children;
+            this.terminals = terminals;
+        }
+
+        private Node child(final char c) {
+            final int idx = Arrays.binarySearch(labels, c);
+            return idx < 0 ? null : children[idx];
+        }
+
+        /**
+         * Walk the candidate (backwards if reverse is true) and collect the patterns of all
+         * terminal nodes on the way. If matches is null return on the first terminal node.
+         */
+        private boolean walk(final String candidate, final boolean reverse, final Set<String> matches) {
+
+            final int len = candidate.length();
+            Node node = this;
+            boolean found = false;
+
+            for (int i = 0; i < len && node != null; i++) {
+                node = node.child(candidate.charAt(reverse ? len - 1 - i : i));
+
+                if (node != null && node.terminals.length > 0) {
+                    if (matches == null) {
+                        return true;
+                    }
+                    found = true;
+                    matches.addAll(Arrays.asList(node.terminals));
+                }
+            }
+
+            return found;
+        }
+    }
+
+    private static final class TrieBuilder {
+
+        private final TreeMap<Character, TrieBuilder> children = new TreeMap<Character, TrieBuilder>();
+        private final List<String> terminals = new ArrayList<String>(1);
+        private boolean empty = true;
+
+        private void add(final String literal, final boolean reverse, final String pattern) {
+            TrieBuilder node = this;
+            final int len = literal.length();
+            for (int i = 0; i < len; i++) {
+                final Character c = literal.charAt(reverse ? len - 1 - i : i);
+                TrieBuilder child = node.children.get(c);
+                if (child == null) {
+                    child = new TrieBuilder();
+                    node.children.put(c, child);
+                }
+                node = child;
+            }
+            node.terminals.add(pattern);
+            empty = false;
+        }
+
+        private Node build() {
+            return empty ? null : build0();
+        }
+
+        private Node build0() {
+            final char[] labels = new char[children.size()];
+            final Node[] nodes = new Node[children.size()];
+            int i = 0;
+            for (final Map.Entry<Character, TrieBuilder> entry : children.entrySet()) {
+                labels[i] = entry.getKey();
+                nodes[i] = entry.getValue().build0();
+                i++;
+            }
+            return new Node(labels, nodes, terminals.toArray(new String[terminals.size()]));
+        }
+    }
+}
@@ -19,12 +19,172 @@ package com.floragunn.searchguard.support;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Stack;
 import java.util.regex.Pattern;
 
-public class WildcardMatcher {
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Matches strings against patterns which can be exact strings, simple wildcard
+ * patterns (using '*' and '?') or java regular expressions enclosed in slashes (/regex/).
+ * <p>
+ * Use {@link #compile(String)} to get an immutable matcher which is specialised by the
+ * shape of the pattern and does not allocate while matching. Compiled matchers are
+ * cached, so the static convenience methods are cheap too.
+ */
+public abstract class WildcardMatcher {
     
     private static final int NOT_FOUND = -1;
+    private static final int MAX_CACHED_PATTERNS = 10000;
+    
+    private static final Cache<String, WildcardMatcher> cache = CacheBuilder.newBuilder()
+            .maximumSize(MAX_CACHED_PATTERNS)
+            .concurrencyLevel(4)
+            .build();
+    
+    public static final WildcardMatcher ANY = new AnyMatcher();
+    public static final WildcardMatcher NONE = new NoneMatcher();
+    
+    protected final String pattern;
+    
+    private WildcardMatcher(final String pattern) {
+        this.pattern = pattern;
+    }
+    
+    /**
+     * @param candidate the string to check, can be null
+     * @return true if the candidate matches this pattern
+     */
+    public abstract boolean matches(String candidate);
+    
+    public final boolean matchesAny(final String[] candidate) {
+        for (int i = 0; i < candidate.length; i++) {
+            if (matches(candidate[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    public final String getPattern() {
+        return pattern;
+    }
+    
+    @Override
+    public String toString() {
+        return pattern;
+    }
+    
+    /**
+     * Compile a pattern into a (cached) immutable matcher
+     * 
+     * @param pattern the pattern, if null a matcher which never matches is returned
+     * @return the compiled matcher, never null
+     */
+    public static WildcardMatcher compile(final String pattern) {
+        
+        if (pattern == null) {
+            return NONE;
+        }
+        
+        WildcardMatcher matcher = cache.getIfPresent(pattern);
+        
+        if (matcher == null) {
+            matcher = compile0(pattern);
+            cache.put(pattern, matcher);
+        }
+        
+        return matcher;
+    }
+    
+    public static WildcardMatcher[] compile(final String[] patterns) {
+        
+        if (patterns == null) {
+            return new WildcardMatcher[0];
+        }
+        
+        final WildcardMatcher[] matchers = new WildcardMatcher[patterns.length];
+        for (int i = 0; i < patterns.length; i++) {
+            matchers[i] = compile(patterns[i]);
+        }
+        return matchers;
+    }
+    
+    private static WildcardMatcher compile0(final String pattern) {
+        
+        if (pattern.length() > 1 && pattern.startsWith("/") && pattern.endsWith("/")) {
+            return new RegexMatcher(pattern);
+        }
+        
+        if (pattern.indexOf('?') == NOT_FOUND && pattern.indexOf('*') == NOT_FOUND) {
+            return new ExactMatcher(pattern);
+        }
+        
+        if (pattern.indexOf('?') == NOT_FOUND) {
+            
+            int start = 0;
+            while (start < pattern.length() && pattern.charAt(start) == '*') {
+                start++;
+            }
+            
+            if (start == pattern.length()) {
+                //only stars
+                return new AnyMatcher(pattern);
+            }
+            
+            int end = pattern.length();
+            while (pattern.charAt(end - 1) == '*') {
+                end--;
+            }
+            
+            final String literal = pattern.substring(start, end);
+            
+            if (literal.indexOf('*') == NOT_FOUND) {
+                if (start > 0 && end < pattern.length()) {
+                    return new ContainsMatcher(pattern, literal);
+                } else if (start > 0) {
+                    return new SuffixMatcher(pattern, literal);
+                } else {
+                    return new PrefixMatcher(pattern, literal);
+                }
+            }
+        }
+        
+        return new GlobMatcher(pattern);
+    }
+    
+    public static boolean matchAny(final WildcardMatcher[] matchers, final String candidate) {
+
+        for (int i = 0; i < matchers.length; i++) {
+            if (matchers[i].matches(candidate)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+    
+    public static boolean matchAny(final WildcardMatcher[] matchers, final String[] candidate) {
+
+        for (int i = 0; i < matchers.length; i++) {
+            if (matchers[i].matchesAny(candidate)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+    
+    public static boolean allPatternsMatched(final WildcardMatcher[] matchers, final String[] candidate) {
+
+        for (int i = 0; i < matchers.length; i++) {
+            if (!matchers[i].matchesAny(candidate)) {
+                return false;
+            }
+        }
+
+        return matchers.length > 0;
+    }
 
     public static boolean matchAny(final String[] pattern, final String[] candidate) {
 
@@ -65,24 +225,17 @@ public class WildcardMatcher {
     }
 
     public static boolean matchAny(final String pattern, final String[] candidate) {
-
-        for (int i = 0; i < candidate.length; i++) {
-            final String string = candidate[i];
-            if (match(pattern, string)) {
-                return true;
-            }
-        }
-
-        return false;
+        return compile(pattern).matchesAny(candidate);
     }
 
     public static List<String> getMatchAny(final String pattern, final String[] candidate) {
 
+        final WildcardMatcher matcher = compile(pattern);
         final List<String> matches = new ArrayList<String>(candidate.length);
 
         for (int i = 0; i < candidate.length; i++) {
             final String string = candidate[i];
-            if (match(pattern, string)) {
+            if (matcher.matches(string)) {
                 matches.add(string);
             }
         }
@@ -108,16 +261,35 @@ public class WildcardMatcher {
             return false;
         }
 
-        if (pattern.startsWith("/") && pattern.endsWith("/")) {
-            // regex
-            return Pattern.matches("^"+pattern.substring(1, pattern.length() - 1)+"$", candidate);
-        } else if (pattern.length() == 1 && pattern.charAt(0) == '*') {
-            return true;
-        } else if (pattern.indexOf('?') == NOT_FOUND && pattern.indexOf('*') == NOT_FOUND) {
-            return pattern.equals(candidate);
-        } else {
-            return simpleWildcardMatch(pattern, candidate);
+        return compile(pattern).matches(candidate);
+    }
+
+    /**
+     * Decide without knowing the candidates if every name matched by the index expression is also matched
+     * by the pattern. The expression can only contain <code>*</code> wildcards. Only simple cases like
+     * <code>logs-*</code> covering <code>logs-2017*</code> are decided, false means not covered or unknown.
+     */
+    public static boolean covers(final String pattern, final String expression) {
+
+        if (pattern == null || expression == null || expression.indexOf('?') > NOT_FOUND) {
+            return false;
+        }
+
+        final int expressionWildcard = expression.indexOf('*');
+
+        if (expressionWildcard == NOT_FOUND) {
+            return match(pattern, expression);
         }
+
+        //only <literal prefix>* patterns
+        final int patternWildcard = pattern.indexOf('*');
+
+        if (patternWildcard == NOT_FOUND || patternWildcard != pattern.length() - 1 || pattern.indexOf('?') > NOT_FOUND
+                || (pattern.startsWith("/") && pattern.endsWith("/"))) {
+            return false;
+        }
+
+        return patternWildcard <= expressionWildcard && expression.startsWith(pattern.substring(0, patternWildcard));
     }
 
     public static boolean containsWildcard(final String pattern) {
@@ -130,204 +302,164 @@ public class WildcardMatcher {
         return false;
     }
     
-    
-    //All code below is copied (and slightly modified) from Apache Commons IO
-    
-    /*
-     * Licensed to the Apache Software Foundation (ASF) under one or more
-     * contributor license agreements.  See the NOTICE file distributed with
-     * this work for additional information regarding copyright ownership.
-     * The ASF licenses this file to You under the Apache License, Version 2.0
-     * (the "License"); you may not use this file except in compliance with
-     * the License.  You may obtain a copy of the License at
-     *
-     *      http://www.apache.org/licenses/LICENSE-2.0
-     *
-     * Unless required by applicable law or agreed to in writing, software
-     * distributed under the License is distributed on an "AS IS" BASIS,
-     * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
-     * See the License for the specific language governing permissions and
-     * limitations under the License.
-     */
-
-
-    /**
-     * Checks a filename to see if it matches the specified wildcard matcher
-     * allowing control over case-sensitivity.
-     * <p>
-     * The wildcard matcher uses the characters '?' and '*' to represent a
-     * single or multiple (zero or more) wildcard characters.
-     * N.B. the sequence "*?" does not work properly at present in match strings.
-     *
-     * @param candidate  the filename to match on
-     * @param pattern  the wildcard string to match against
-     * @return true if the filename matches the wilcard string
-     * @since 1.3
-     */
-    private static boolean simpleWildcardMatch(final String pattern, final String candidate) {
-        if (candidate == null && pattern == null) {
-            return true;
+    private static final class AnyMatcher extends WildcardMatcher {
+        
+        private AnyMatcher() {
+            this("*");
         }
-        if (candidate == null || pattern == null) {
-            return false;
+        
+        private AnyMatcher(final String pattern) {
+            super(pattern);
         }
 
-        final String[] wcs = splitOnTokens(pattern);
-        boolean anyChars = false;
-        int textIdx = 0;
-        int wcsIdx = 0;
-        final Stack<int[]> backtrack = new Stack<>();
-
-        // loop around a backtrack stack, to handle complex * matching
-        do {
-            if (backtrack.size() > 0) {
-                final int[] array = backtrack.pop();
-                wcsIdx = array[0];
-                textIdx = array[1];
-                anyChars = true;
-            }
-
-            // loop whilst tokens and text left to process
-            while (wcsIdx < wcs.length) {
-
-                if (wcs[wcsIdx].equals("?")) {
-                    // ? so move to next text char
-                    textIdx++;
-                    if (textIdx > candidate.length()) {
-                        break;
-                    }
-                    anyChars = false;
-
-                } else if (wcs[wcsIdx].equals("*")) {
-                    // set any chars status
-                    anyChars = true;
-                    if (wcsIdx == wcs.length - 1) {
-                        textIdx = candidate.length();
-                    }
-
-                } else {
-                    // matching text token
-                    if (anyChars) {
-                        // any chars then try to locate text token
-                        textIdx = checkIndexOf(candidate, textIdx, wcs[wcsIdx]);
-                        if (textIdx == NOT_FOUND) {
-                            // token not found
-                            break;
-                        }
-                        final int repeat = checkIndexOf(candidate, textIdx + 1, wcs[wcsIdx]);
-                        if (repeat >= 0) {
-                            backtrack.push(new int[] {wcsIdx, repeat});
-                        }
-                    } else {
-                        // matching from current position
-                        if (!checkRegionMatches(candidate, textIdx, wcs[wcsIdx])) {
-                            // couldnt match token
-                            break;
-                        }
-                    }
-
-                    // matched text token, move text index to end of matched token
-                    textIdx += wcs[wcsIdx].length();
-                    anyChars = false;
-                }
+        @Override
+        public boolean matches(final String candidate) {
+            return candidate != null;
+        }
+    }
+    
+    private static final class NoneMatcher extends WildcardMatcher {
+        
+        private NoneMatcher() {
+            super(null);
+        }
 
-                wcsIdx++;
-            }
+        @Override
+        public boolean matches(final String candidate) {
+            return false;
+        }
+    }
+    
+    private static final class ExactMatcher extends WildcardMatcher {
+        
+        private ExactMatcher(final String pattern) {
+            super(pattern);
+        }
 
-            // full match
-            if (wcsIdx == wcs.length && textIdx == candidate.length()) {
-                return true;
-            }
+        @Override
+        public boolean matches(final String candidate) {
+            return pattern.equals(candidate);
+        }
+    }
+    
+    private static final class PrefixMatcher extends WildcardMatcher {
+        
+        private final String prefix;
+        
+        private PrefixMatcher(final String pattern, final String prefix) {
+            super(pattern);
+            this.prefix = prefix;
+        }
 
-        } while (backtrack.size() > 0);
+        @Override
+        public boolean matches(final String candidate) {
+            return candidate != null && candidate.startsWith(prefix);
+        }
+    }
+    
+    private static final class SuffixMatcher extends WildcardMatcher {
+        
+        private final String suffix;
+        
+        private SuffixMatcher(final String pattern, final String suffix) {
+            super(pattern);
+            this.suffix = suffix;
+        }
 
-        return false;
+        @Override
+        public boolean matches(final String candidate) {
+            return candidate != null && candidate.endsWith(suffix);
+        }
     }
+    
+    private static final class ContainsMatcher extends WildcardMatcher {
+        
+        private final String infix;
+        
+        private ContainsMatcher(final String pattern, final String infix) {
+            super(pattern);
+            this.infix = infix;
+        }
 
-    /**
-     * Splits a string into a number of tokens.
-     * The text is split by '?' and '*'.
-     * Where multiple '*' occur consecutively they are collapsed into a single '*'.
-     *
-     * @param text  the text to split
-     * @return the array of tokens, never null
-     */
-    private static String[] splitOnTokens(final String text) {
-        // used by wildcardMatch
-        // package level so a unit test may run on this
-
-        if (text.indexOf('?') == NOT_FOUND && text.indexOf('*') == NOT_FOUND) {
-            return new String[] { text };
-        }
-
-        final char[] array = text.toCharArray();
-        final ArrayList<String> list = new ArrayList<>();
-        final StringBuilder buffer = new StringBuilder();
-        char prevChar = 0;
-        for (final char ch : array) {
-            if (ch == '?' || ch == '*') {
-                if (buffer.length() != 0) {
-                    list.add(buffer.toString());
-                    buffer.setLength(0);
-                }
-                if (ch == '?') {
-                    list.add("?");
-                } else if (prevChar != '*') {// ch == '*' here; check if previous char was '*'
-                    list.add("*");
-                }
-            } else {
-                buffer.append(ch);
-            }
-            prevChar = ch;
+        @Override
+        public boolean matches(final String candidate) {
+            return candidate != null && candidate.contains(infix);
         }
-        if (buffer.length() != 0) {
-            list.add(buffer.toString());
+    }
+    
+    private static final class RegexMatcher extends WildcardMatcher {
+        
+        private final Pattern regex;
+        
+        private RegexMatcher(final String pattern) {
+            super(pattern);
+            this.regex = Pattern.compile("^"+pattern.substring(1, pattern.length() - 1)+"$");
         }
 
-        return list.toArray( new String[ list.size() ] );
+        @Override
+        public boolean matches(final String candidate) {
+            return candidate != null && regex.matcher(candidate).matches();
+        }
     }
     
     /**
-     * Checks if one string contains another starting at a specific index using the
-     * case-sensitivity rule.
-     * <p>
-     * This method mimics parts of {@link String#indexOf(String, int)}
-     * but takes case-sensitivity into account.
-     *
-     * @param str  the string to check, not null
-     * @param strStartIndex  the index to start at in str
-     * @param search  the start to search for, not null
-     * @return the first index of the search String,
-     *  -1 if no match or {@code null} string input
-     * @throws NullPointerException if either string is null
-     * @since 2.0
+     * General '*' and '?' pattern, matched iteratively by remembering only the
+     * position of the last star (no backtracking stack needed)
      */
-    private static int checkIndexOf(final String str, final int strStartIndex, final String search) {
-        final int endIndex = str.length() - search.length();
-        if (endIndex >= strStartIndex) {
-            for (int i = strStartIndex; i <= endIndex; i++) {
-                if (checkRegionMatches(str, i, search)) {
-                    return i;
+    private static final class GlobMatcher extends WildcardMatcher {
+        
+        private final char[] glob;
+        
+        private GlobMatcher(final String pattern) {
+            super(pattern);
+            
+            //collapse consecutive stars
+            final StringBuilder sb = new StringBuilder(pattern.length());
+            char prevChar = 0;
+            for (int i = 0; i < pattern.length(); i++) {
+                final char ch = pattern.charAt(i);
+                if (ch != '*' || prevChar != '*') {
+                    sb.append(ch);
                 }
+                prevChar = ch;
             }
+            this.glob = sb.toString().toCharArray();
         }
-        return -1;
-    }
-    
-    /**
-     * Checks if one string contains another at a specific index using the case-sensitivity rule.
-     * <p>
-     * This method mimics parts of {@link String#regionMatches(boolean, int, String, int, int)}
-     * but takes case-sensitivity into account.
-     *
-     * @param str  the string to check, not null
-     * @param strStartIndex  the index to start at in str
-     * @param search  the start to search for, not null
-     * @return true if equal using the case rules
-     * @throws NullPointerException if either string is null
-     */
-    private static boolean checkRegionMatches(final String str, final int strStartIndex, final String search) {
-        return str.regionMatches(false, strStartIndex, search, 0, search.length());
-    }
 
+        @Override
+        public boolean matches(final String candidate) {
+            
+            if (candidate == null) {
+                return false;
+            }
+            
+            final int len = candidate.length();
+            int textIdx = 0;
+            int globIdx = 0;
+            int starIdx = NOT_FOUND;
+            int starTextIdx = 0;
+            
+            while (textIdx < len) {
+                if (globIdx < glob.length && glob[globIdx] == '*') {
+                    starIdx = globIdx++;
+                    starTextIdx = textIdx;
+                } else if (globIdx < glob.length && (glob[globIdx] == '?' || glob[globIdx] == candidate.charAt(textIdx))) {
+                    globIdx++;
+                    textIdx++;
+                } else if (starIdx != NOT_FOUND) {
+                    //let the last star consume one more char and retry
+                    globIdx = starIdx + 1;
+                    textIdx = ++starTextIdx;
+                } else {
+                    return false;
+                }
+            }
+            
+            while (globIdx < glob.length && glob[globIdx] == '*') {
+                globIdx++;
+            }
+            
+            return globIdx == glob.length;
+        }
+    }
 }
@@ -558,6 +558,8 @@ public class SearchGuardAdmin {
             
             if(!successNode) {
                 System.out.println("FAIL: Expected "+expectedConfigCount+" config types for node "+nodeId+" but got only "+Arrays.toString(node.getUpdatedConfigTypes()) + " due to: "+node.getMessage()==null?"unknown reason":node.getMessage());
+            } else {
+                System.out.println("   Node "+nodeId+" reloaded the configuration, changed config types: "+Arrays.toString(node.getChangedConfigTypes()));
             }
             
             success = success & successNode;
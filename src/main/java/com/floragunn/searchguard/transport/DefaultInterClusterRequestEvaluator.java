@@ -36,17 +36,19 @@ public final class DefaultInterClusterRequestEvaluator implements InterClusterRe
     private final ESLogger log = Loggers.getLogger(this.getClass());
     private final String certOid;
     private final String[] nodesDn;
+    private final WildcardMatcher[] nodesDnMatchers;
 
     public DefaultInterClusterRequestEvaluator(final Settings settings) {
         this.certOid = settings.get("searchguard.cert.oid", "1.2.3.4.5.5");
         this.nodesDn = settings.getAsArray("searchguard.nodes_dn", new String[0]);
+        this.nodesDnMatchers = WildcardMatcher.compile(nodesDn);
     }
 
     @Override
     public boolean isInterClusterRequest(TransportRequest request, X509Certificate[] localCerts, X509Certificate[] peerCerts,
             final String principal) {
                 
-        if (principal != null && principal.length() > 0 && WildcardMatcher.matchAny(nodesDn, principal)) {
+        if (principal != null && principal.length() > 0 && WildcardMatcher.matchAny(nodesDnMatchers, principal)) {
 
             if (log.isDebugEnabled()) {
                 log.debug("Treat certificate with principal '{}' as other node because of it matches one of {}", principal,
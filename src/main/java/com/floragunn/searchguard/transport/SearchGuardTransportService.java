@@ -47,10 +47,14 @@ import com.floragunn.searchguard.ssl.transport.PrincipalExtractor;
 import com.floragunn.searchguard.ssl.transport.SearchGuardSSLTransportService;
 import com.floragunn.searchguard.support.Base64Helper;
 import com.floragunn.searchguard.support.ConfigConstants;
+import com.floragunn.searchguard.support.EncodedHeaders;
 import com.floragunn.searchguard.support.HeaderHelper;
 import com.floragunn.searchguard.support.LogHelper;
 import com.floragunn.searchguard.user.User;
 import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 
 public class SearchGuardTransportService extends SearchGuardSSLTransportService {
     
@@ -58,6 +62,9 @@ public class SearchGuardTransportService extends SearchGuardSSLTransportService
     private final Provider<BackendRegistry> backendRegistry;
     private final Provider<InterClusterRequestEvaluator> requestEvalProvider;
     private final AuditLog auditLog;
+    private final boolean compactSerialization;
+    //encoded user header -> deserialized user
+    private final Cache<String, User> userCache;
 
     @Inject
     public SearchGuardTransportService(final Settings settings, final Transport transport, final ThreadPool threadPool,
@@ -67,6 +74,13 @@ public class SearchGuardTransportService extends SearchGuardSSLTransportService
         this.backendRegistry = backendRegistry;
         this.auditLog = auditLog;
         this.requestEvalProvider = requestEvalProvider; 
+        this.compactSerialization = settings.getAsBoolean(ConfigConstants.SG_COMPACT_SERIALIZATION, false);
+        
+        final int userCacheSize = settings.getAsInt(ConfigConstants.SG_TRANSPORT_USER_CACHE_MAX_SIZE, 1000);
+        this.userCache = userCacheSize > 0 ? CacheBuilder.newBuilder()
+                .maximumSize(userCacheSize)
+                .recordStats()
+                .<String, User>build() : null;
     }
 
     @Override
@@ -87,10 +101,19 @@ public class SearchGuardTransportService extends SearchGuardSSLTransportService
 
     private void attachHeaders(final String action, final TransportRequest request) {
 
-        // keep original address
         final Object remoteAdr = request.getFromContext(ConfigConstants.SG_REMOTE_ADDRESS);
+        User user = request.getFromContext(ConfigConstants.SG_USER);
+        
+        //reuse the headers already encoded for the originating request if the context was copied from it
+        EncodedHeaders encodedHeaders = request.getFromContext(ConfigConstants.SG_ENCODED_HEADERS);
+        
+        if (encodedHeaders == null || !encodedHeaders.isFor(user, remoteAdr, compactSerialization)) {
+            encodedHeaders = new EncodedHeaders(user, remoteAdr, compactSerialization);
+        }
+        
+        // keep original address
         if (remoteAdr != null && remoteAdr instanceof InetSocketTransportAddress) {
-            request.putHeader(ConfigConstants.SG_REMOTE_ADDRESS_HEADER, Base64Helper.serializeObject(((InetSocketTransportAddress) remoteAdr).address()));
+            request.putHeader(ConfigConstants.SG_REMOTE_ADDRESS_HEADER, encodedHeaders.getRemoteAddressHeader());
             //LogHelper.logUserTrace("<-- Put remote address {} in header (from sg_remote_address ctx)", remoteAdr);
         }
 
@@ -98,20 +121,42 @@ public class SearchGuardTransportService extends SearchGuardSSLTransportService
             log.trace("sendRequest {}", LogHelper.toString(request));
         }*/
         
-        User user = request.getFromContext(ConfigConstants.SG_USER);
-                
         if(user == null /* && action.startsWith("internal:")*/ && request.remoteAddress() == null) {
             user = User.SG_INTERNAL;
-        }
-        
-        if(user != null) {
-            request.putHeader(ConfigConstants.SG_USER_HEADER, Base64Helper.serializeObject(user));
+            request.putHeader(ConfigConstants.SG_USER_HEADER, Base64Helper.serializeObject(user, compactSerialization));
+        } else if(user != null) {
+            request.putHeader(ConfigConstants.SG_USER_HEADER, encodedHeaders.getUserHeader());
         } else {
             throw new ElasticsearchSecurityException("user must not be null here for " + action + " "
                     + LogHelper.toString(request));
         }
     }
 
+    /**
+     * @return hit/miss statistics of the cache for deserialized users received from other nodes
+     */
+    public CacheStats getUserCacheStats() {
+        return userCache == null ? new CacheStats(0, 0, 0, 0, 0, 0) : userCache.stats();
+    }
+    
+    private User deserializeUser(final String userHeader) {
+        
+        if(userCache == null) {
+            return Objects.requireNonNull((User) Base64Helper.deserializeObject(userHeader));
+        }
+        
+        User user = userCache.getIfPresent(userHeader);
+        
+        if(user == null) {
+            //concurrent misses for the same header may deserialize it more than once, thats fine
+            //seal because the instance is shared between requests
+            user = Objects.requireNonNull((User) Base64Helper.deserializeObject(userHeader)).seal();
+            userCache.put(userHeader, user);
+        }
+        
+        return user;
+    }
+
     @Override
     protected void addAdditionalContextValues(final String action, final TransportRequest request, final X509Certificate[] localCerts, final X509Certificate[] peerCerts, final String principal)
             throws Exception {
@@ -181,7 +226,7 @@ public class SearchGuardTransportService extends SearchGuardSSLTransportService
                         //user can be null when a node client wants connect
                         request.putInContext(ConfigConstants.SG_USER, User.SG_INTERNAL);               
                     } else {
-                        request.putInContext(ConfigConstants.SG_USER, Objects.requireNonNull((User) Base64Helper.deserializeObject(userHeader)));
+                        request.putInContext(ConfigConstants.SG_USER, deserializeUser(userHeader));
                     }
                     
                     String originalRemoteAddress = request.getHeader(ConfigConstants.SG_REMOTE_ADDRESS_HEADER);
@@ -56,7 +56,8 @@ public final class AuthCredentials {
     }
     
     public AuthCredentials(final AuthCredentials creds) {
-        this(creds.username, creds.password, creds.nativeCredentials);
+        this(creds.username, creds.password, creds.nativeCredentials, creds.backendRoles.toArray(new String[0]));
+        this.complete = creds.complete;
     }
 
     private AuthCredentials(final String username, byte[] password, Object nativeCredentials, String... backendRoles) {
@@ -25,14 +25,25 @@ import java.util.Set;
 
 import com.google.common.collect.Lists;
 
-public class User implements Serializable {
+/**
+ * A authenticated user with its backend roles.
+ * <p>
+ * A user can be modified (e.g. by authorization backends adding roles) until {@link #seal()} is called.
+ * Roles of an unsealed user can be added concurrently (authorization backends may run in parallel).
+ * Sealed users are immutable and can be cached and shared across threads and requests.
+ * Use {@link #withRequestedTenant(String)} to attach a per request tenant to a sealed user.
+ */
+public class User implements Serializable, Cloneable {
 
-    public static final User ANONYMOUS = new User("sg_anonymous", Lists.newArrayList("sg_anonymous_backendrole"));
-    public static final User SG_INTERNAL = new User("_sg_internal");
+    public static final User ANONYMOUS = new User("sg_anonymous", Lists.newArrayList("sg_anonymous_backendrole")).seal();
+    public static final User SG_INTERNAL = new User("_sg_internal").seal();
     private static final long serialVersionUID = -5500938501822658596L;
     private final String name;
-    private final Set<String> roles = new HashSet<String>();
+    //only reassigned in unsealedCopy()
+    private Set<String> roles = new HashSet<String>();
     private String requestedTenant;
+    private transient volatile boolean sealed;
+    private transient int hash;
 
     public User(final String name, final Collection<String> toAdd) {
         super();
@@ -57,41 +68,139 @@ public class User implements Serializable {
         return name;
     }
 
+    /**
+     * @return the roles, a snapshot if the user is not yet sealed
+     */
     public Set<String> getRoles() {
-        return Collections.unmodifiableSet(roles);
+        if (sealed) {
+            return Collections.unmodifiableSet(roles);
+        }
+        
+        synchronized (roles) {
+            return Collections.unmodifiableSet(new HashSet<String>(roles));
+        }
     }
 
     public void addRole(final String role) {
-        roles.add(role);
+        synchronized (roles) {
+            checkNotSealed();
+            roles.add(role);
+        }
     }
 
     public void addRoles(final Collection<String> toAdd) {
-        roles.addAll(toAdd);
+        synchronized (roles) {
+            checkNotSealed();
+            roles.addAll(toAdd);
+        }
     }
 
     public boolean isUserInRole(final String role) {
-        return roles.contains(role);
+        if (sealed) {
+            return roles.contains(role);
+        }
+        
+        synchronized (roles) {
+            return roles.contains(role);
+        }
     }
     
     public String getRequestedTenant() {
         return requestedTenant;
     }
 
+    /**
+     * @deprecated use {@link #withRequestedTenant(String)}, this fails for sealed users
+     */
+    @Deprecated
     public void setRequestedTenant(String requestedTenant) {
+        checkNotSealed();
         this.requestedTenant = requestedTenant;
     }
+    
+    /**
+     * @return this user if it already has the given requested tenant, otherwise a sealed copy of this user with the given requested tenant
+     */
+    public User withRequestedTenant(final String requestedTenant) {
+        
+        if (requestedTenant == null ? this.requestedTenant == null : requestedTenant.equals(this.requestedTenant)) {
+            return this;
+        }
+        
+        final User copy;
+        
+        try {
+            //clone() keeps the class and the fields of subclasses (e.g. ldap users)
+            copy = (User) super.clone();
+        } catch (final CloneNotSupportedException e) {
+            throw new RuntimeException(e);
+        }
+        
+        //the copy shares the roles with this user, so both must be immutable
+        seal();
+        copy.requestedTenant = requestedTenant;
+        copy.sealed = true;
+        return copy;
+    }
+    
+    /**
+     * @return an unsealed copy of this user (same class and fields) with its own set of roles, 
+     * e.g. to collect the roles of one authorization backend without touching this user
+     */
+    public User unsealedCopy() {
+        
+        final User copy;
+        
+        try {
+            copy = (User) super.clone();
+        } catch (final CloneNotSupportedException e) {
+            throw new RuntimeException(e);
+        }
+        
+        copy.roles = new HashSet<String>(getRoles());
+        copy.sealed = false;
+        return copy;
+    }
+    
+    /**
+     * Make this user immutable, calls to {@link #addRole(String)}, {@link #addRoles(Collection)} and
+     * {@link #setRequestedTenant(String)} will fail afterwards.
+     * 
+     * @return this user
+     */
+    public User seal() {
+        //under the lock so that no concurrent addRole() can slip through after sealing
+        synchronized (roles) {
+            sealed = true;
+        }
+        return this;
+    }
+    
+    public boolean isSealed() {
+        return sealed;
+    }
+    
+    private void checkNotSealed() {
+        if (sealed) {
+            throw new IllegalStateException("User " + name + " is sealed and can not be modified");
+        }
+    }
 
     @Override
     public String toString() {
-        return "User [name=" + name + ", roles=" + roles + "]";
+        return "User [name=" + name + ", roles=" + getRoles() + "]";
     }
 
     @Override
     public int hashCode() {
-        final int prime = 31;
-        int result = 1;
-        result = prime * result + (name == null ? 0 : name.hashCode());
-        return result;
+        int h = hash;
+        if (h == 0) {
+            final int prime = 31;
+            h = 1;
+            h = prime * h + (name == null ? 0 : name.hashCode());
+            hash = h;
+        }
+        return h;
     }
 
     @Override
@@ -119,4 +228,43 @@ public class User implements Serializable {
     public void copyRolesFrom(final User user) {
         this.addRoles(user.getRoles());
     }
+    
+    public static Builder builder(final String name) {
+        return new Builder(name);
+    }
+    
+    /**
+     * Builds sealed users
+     */
+    public static final class Builder {
+        
+        private final String name;
+        private final Set<String> roles = new HashSet<String>();
+        private String requestedTenant;
+        
+        private Builder(final String name) {
+            this.name = name;
+        }
+        
+        public Builder role(final String role) {
+            roles.add(role);
+            return this;
+        }
+        
+        public Builder roles(final Collection<String> roles) {
+            this.roles.addAll(roles);
+            return this;
+        }
+        
+        public Builder requestedTenant(final String requestedTenant) {
+            this.requestedTenant = requestedTenant;
+            return this;
+        }
+        
+        public User build() {
+            final User user = new User(name, roles);
+            user.requestedTenant = requestedTenant;
+            return user.seal();
+        }
+    }
 }
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2017 floragunn GmbH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.floragunn.searchguard;
+
+import java.io.Serializable;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.floragunn.searchguard.support.Base64Helper;
+import com.floragunn.searchguard.user.User;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+public class Base64HelperTests {
+    
+    @Test
+    public void testUser() {
+        final User user = User.builder("nagilum").roles(Lists.newArrayList("role1", "role2")).requestedTenant("tenant").build();
+        
+        for(boolean compact: new boolean[]{true, false}) {
+            final User copy = (User) Base64Helper.deserializeObject(Base64Helper.serializeObject(user, compact));
+            Assert.assertEquals(User.class, copy.getClass());
+            Assert.assertEquals("nagilum", copy.getName());
+            Assert.assertEquals(user.getRoles(), copy.getRoles());
+            Assert.assertEquals("tenant", copy.getRequestedTenant());
+        }
+        
+        Assert.assertTrue(Base64Helper.serializeObject(user, true).length() < Base64Helper.serializeObject(user, false).length());
+        //java serialization (0xACED) unless compact is requested explicitly
+        Assert.assertEquals(Base64Helper.serializeObject(user, false), Base64Helper.serializeObject(user));
+        Assert.assertTrue(Base64Helper.serializeObject(user).startsWith("rO0"));
+    }
+    
+    @Test
+    public void testInetSocketAddress() throws Exception {
+        final InetSocketAddress address = new InetSocketAddress(InetAddress.getByAddress(new byte[]{10, 0, 0, 1}), 9300);
+        
+        for(boolean compact: new boolean[]{true, false}) {
+            final InetSocketAddress copy = (InetSocketAddress) Base64Helper.deserializeObject(Base64Helper.serializeObject(address, compact));
+            Assert.assertEquals(address, copy);
+            Assert.assertEquals("10.0.0.1", copy.getHostString());
+        }
+        
+        final InetSocketAddress unresolved = InetSocketAddress.createUnresolved("somehost", 9200);
+        Assert.assertEquals(unresolved, Base64Helper.deserializeObject(Base64Helper.serializeObject(unresolved)));
+    }
+    
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testStringSetMap() {
+        final Map<String, Set<String>> dls = new HashMap<String, Set<String>>();
+        dls.put("index1", Sets.newHashSet("{\"term\": {\"a\": 1}}", "{\"term\": {\"b\": 2}}"));
+        dls.put("index2", Sets.<String>newHashSet());
+        
+        for(boolean compact: new boolean[]{true, false}) {
+            final Map<String, Set<String>> copy = (Map<String, Set<String>>) Base64Helper.deserializeObject(Base64Helper.serializeObject((Serializable) dls, compact));
+            Assert.assertEquals(dls, copy);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2017 floragunn GmbH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.floragunn.searchguard;
+
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.floragunn.searchguard.support.PatternSet;
+import com.google.common.collect.Sets;
+
+public class PatternSetTests {
+    
+    @Test
+    public void test() {
+        final PatternSet ps = PatternSet.compile(new String[]{"indices:data/read*", "indices:data/read/search*", "*/get", 
+                "indices:admin/create", "logstash-?", "/(\\d{3})/", "*my*index"});
+        
+        Assert.assertTrue(ps.matchesAny("indices:data/read/search"));
+        Assert.assertTrue(ps.matchesAny("indices:data/write/get"));
+        Assert.assertTrue(ps.matchesAny("indices:admin/create"));
+        Assert.assertTrue(ps.matchesAny("logstash-1"));
+        Assert.assertTrue(ps.matchesAny("123"));
+        Assert.assertTrue(ps.matchesAny("this_is_my_great_index"));
+        Assert.assertTrue(!ps.matchesAny("indices:admin/delete"));
+        Assert.assertTrue(!ps.matchesAny("logstash-12"));
+        Assert.assertTrue(!ps.matchesAny((String) null));
+        Assert.assertTrue(ps.matchesAny(new String[]{"a", "1234", "indices:data/read"}));
+        
+        Set<String> matches = ps.getMatches("indices:data/read/search/get");
+        Assert.assertEquals(Sets.newHashSet("indices:data/read*", "indices:data/read/search*", "*/get"), matches);
+        
+        matches = ps.getMatches("indices:admin/create");
+        Assert.assertEquals(Sets.newHashSet("indices:admin/create"), matches);
+        
+        Assert.assertTrue(ps.getMatches("nothing").isEmpty());
+    }
+    
+    @Test
+    public void testMatchAll() {
+        final PatternSet ps = PatternSet.compile(new String[]{"**", "abc"});
+        Assert.assertTrue(ps.matchesAny(""));
+        Assert.assertTrue(ps.matchesAny("xyz"));
+        Assert.assertEquals(Sets.newHashSet("**", "abc"), ps.getMatches("abc"));
+        Assert.assertTrue(PatternSet.compile(new String[0]).isEmpty());
+        Assert.assertTrue(!PatternSet.compile(new String[0]).matchesAny("abc"));
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2017 floragunn GmbH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.floragunn.searchguard;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.floragunn.searchguard.user.User;
+import com.google.common.collect.Sets;
+
+public class UserTests {
+    
+    @Test
+    public void testSealed() {
+        final User user = new User("nagilum");
+        user.addRole("role1");
+        Assert.assertFalse(user.isSealed());
+        user.seal();
+        
+        try {
+            user.addRole("role2");
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            //expected
+        }
+        
+        Assert.assertEquals(Sets.newHashSet("role1"), user.getRoles());
+        Assert.assertTrue(User.builder("x").role("r").build().isSealed());
+    }
+    
+    @Test
+    public void testWithRequestedTenant() {
+        final User user = User.builder("nagilum").role("role1").build();
+        final User withTenant = user.withRequestedTenant("tenant");
+        
+        Assert.assertNotSame(user, withTenant);
+        Assert.assertNull(user.getRequestedTenant());
+        Assert.assertEquals("tenant", withTenant.getRequestedTenant());
+        Assert.assertEquals(user, withTenant);
+        Assert.assertEquals(user.getRoles(), withTenant.getRoles());
+        Assert.assertTrue(withTenant.isSealed());
+        Assert.assertSame(withTenant, withTenant.withRequestedTenant("tenant"));
+        Assert.assertSame(user, user.withRequestedTenant(null));
+    }
+}
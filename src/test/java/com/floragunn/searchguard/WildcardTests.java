@@ -29,7 +29,7 @@ public class WildcardTests {
         Assert.assertTrue(!WildcardMatcher.match("a*?", "a"));
         Assert.assertTrue(WildcardMatcher.match("a*?", "aa"));
         Assert.assertTrue(WildcardMatcher.match("a*?", "ab"));
-        //Assert.assertTrue(WildcardMatcher.match("a*?", "abb"));
+        Assert.assertTrue(WildcardMatcher.match("a*?", "abb"));
         Assert.assertTrue(WildcardMatcher.match("*my*index", "myindex"));
         Assert.assertTrue(!WildcardMatcher.match("*my*index", "myindex1"));
         Assert.assertTrue(WildcardMatcher.match("*my*index?", "myindex1"));
@@ -50,4 +50,43 @@ public class WildcardTests {
         Assert.assertTrue(WildcardMatcher.containsWildcard("a?bc"));
         Assert.assertTrue(WildcardMatcher.containsWildcard("/(\\d{3}-\\d{2}-?\\d{4})/"));
     }
+    
+    @Test
+    public void testCompiled() {
+        Assert.assertTrue(WildcardMatcher.compile("*").matches("abc"));
+        Assert.assertTrue(WildcardMatcher.compile("**").matches(""));
+        Assert.assertTrue(!WildcardMatcher.compile("*").matches(null));
+        Assert.assertTrue(!WildcardMatcher.compile(null).matches("abc"));
+        Assert.assertTrue(WildcardMatcher.compile("indices:data/read*").matches("indices:data/read/search"));
+        Assert.assertTrue(!WildcardMatcher.compile("indices:data/read*").matches("indices:data/write/index"));
+        Assert.assertTrue(WildcardMatcher.compile("*/search").matches("indices:data/read/search"));
+        Assert.assertTrue(!WildcardMatcher.compile("*/search").matches("indices:data/read/search/template"));
+        Assert.assertTrue(WildcardMatcher.compile("*read*").matches("indices:data/read/get"));
+        Assert.assertTrue(!WildcardMatcher.compile("*read*").matches("indices:data/write/index"));
+        Assert.assertTrue(WildcardMatcher.compile("a*b*c").matches("aXbYbc"));
+        Assert.assertTrue(!WildcardMatcher.compile("a*b*c").matches("aXbYbcd"));
+        Assert.assertTrue(WildcardMatcher.compile("/\\S*/").matches("abc"));
+        Assert.assertTrue(WildcardMatcher.compile("abc*") == WildcardMatcher.compile("abc*"));
+        Assert.assertTrue(WildcardMatcher.matchAny(WildcardMatcher.compile(new String[]{"x", "ab?"}), "abc"));
+        Assert.assertTrue(!WildcardMatcher.allPatternsMatched(WildcardMatcher.compile(new String[0]), new String[]{"abc"}));
+    }
+    
+    @Test
+    public void testCovers() {
+        Assert.assertTrue(WildcardMatcher.covers("*", "logs-*"));
+        Assert.assertTrue(WildcardMatcher.covers("logs-*", "logs-*"));
+        Assert.assertTrue(WildcardMatcher.covers("logs-*", "logs-2017*"));
+        Assert.assertTrue(WildcardMatcher.covers("logs-*", "logs-2017-01"));
+        Assert.assertTrue(WildcardMatcher.covers("logs-2017-01", "logs-2017-01"));
+        Assert.assertTrue(WildcardMatcher.covers("/logs-\\d+/", "logs-1"));
+        Assert.assertTrue(!WildcardMatcher.covers("logs-2017*", "logs-*"));
+        Assert.assertTrue(!WildcardMatcher.covers("logs-*", "lo*"));
+        Assert.assertTrue(!WildcardMatcher.covers("logs-*", "*"));
+        Assert.assertTrue(!WildcardMatcher.covers("*-logs", "app-*-logs"));
+        Assert.assertTrue(!WildcardMatcher.covers("logs-?", "logs-*"));
+        Assert.assertTrue(!WildcardMatcher.covers("logs", "logs*"));
+        Assert.assertTrue(!WildcardMatcher.covers("/logs.*/", "logs*"));
+        Assert.assertTrue(!WildcardMatcher.covers("logs-*", "logs-?"));
+        Assert.assertTrue(!WildcardMatcher.covers(null, "logs"));
+    }
 }
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2017 floragunn GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.floragunn.searchguard.auth;
+
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.common.settings.Settings;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.floragunn.searchguard.auth.UserCacheTests.FakeTicker;
+
+public class AuthFailureBackoffTests {
+
+    private static final Settings SETTINGS = Settings.settingsBuilder()
+            .put("enabled", true)
+            .put("allowed_tries", 3)
+            .put("initial_delay_ms", 1000)
+            .put("max_delay_ms", 5000)
+            .put("reset_after_minutes", 10)
+            .build();
+
+    @Test
+    public void testDisabled() {
+        final AuthFailureBackoff backoff = new AuthFailureBackoff(Settings.EMPTY, new FakeTicker());
+        Assert.assertFalse(backoff.isEnabled());
+
+        for (int i = 0; i < 10; i++) {
+            backoff.onFailure("nagilum", "10.0.0.1");
+        }
+
+        Assert.assertFalse(backoff.isUserBlocked("nagilum"));
+        Assert.assertFalse(backoff.isAddressBlocked("10.0.0.1"));
+        Assert.assertEquals(0, backoff.getRejectedCount());
+    }
+
+    @Test
+    public void testAllowedTries() {
+        final AuthFailureBackoff backoff = new AuthFailureBackoff(SETTINGS, new FakeTicker());
+        Assert.assertTrue(backoff.isEnabled());
+
+        backoff.onFailure("nagilum", "10.0.0.1");
+        backoff.onFailure("nagilum", "10.0.0.1");
+        Assert.assertFalse(backoff.isUserBlocked("nagilum"));
+        Assert.assertFalse(backoff.isAddressBlocked("10.0.0.1"));
+
+        backoff.onFailure("nagilum", "10.0.0.1");
+        Assert.assertTrue(backoff.isUserBlocked("nagilum"));
+        Assert.assertTrue(backoff.isAddressBlocked("10.0.0.1"));
+        Assert.assertEquals(2, backoff.getRejectedCount());
+    }
+
+    @Test
+    public void testExponentialDelay() {
+        final FakeTicker ticker = new FakeTicker();
+        final AuthFailureBackoff backoff = new AuthFailureBackoff(SETTINGS, ticker);
+
+        backoff.onFailure("nagilum", null);
+        backoff.onFailure("nagilum", null);
+
+        //1s, 2s, 4s and then capped at 5s
+        for (final long delay : new long[] { 1000, 2000, 4000, 5000, 5000 }) {
+            backoff.onFailure("nagilum", null);
+            ticker.advance(delay - 1, TimeUnit.MILLISECONDS);
+            Assert.assertTrue(String.valueOf(delay), backoff.isUserBlocked("nagilum"));
+            ticker.advance(1, TimeUnit.MILLISECONDS);
+            Assert.assertFalse(String.valueOf(delay), backoff.isUserBlocked("nagilum"));
+        }
+    }
+
+    @Test
+    public void testResetOnSuccess() {
+        final AuthFailureBackoff backoff = new AuthFailureBackoff(SETTINGS, new FakeTicker());
+
+        for (int i = 0; i < 3; i++) {
+            backoff.onFailure("nagilum", "10.0.0.1");
+        }
+        Assert.assertTrue(backoff.isUserBlocked("nagilum"));
+
+        backoff.onSuccess("nagilum");
+        Assert.assertFalse(backoff.isUserBlocked("nagilum"));
+        //the address is not reset by a successful login of one user
+        Assert.assertTrue(backoff.isAddressBlocked("10.0.0.1"));
+
+        //counting starts again
+        backoff.onFailure("nagilum", null);
+        backoff.onFailure("nagilum", null);
+        Assert.assertFalse(backoff.isUserBlocked("nagilum"));
+    }
+
+    @Test
+    public void testResetAfterMinutes() {
+        final FakeTicker ticker = new FakeTicker();
+        final AuthFailureBackoff backoff = new AuthFailureBackoff(SETTINGS, ticker);
+
+        for (int i = 0; i < 5; i++) {
+            backoff.onFailure("nagilum", null);
+        }
+
+        ticker.advance(9, TimeUnit.MINUTES);
+        Assert.assertFalse(backoff.isUserBlocked("nagilum"));
+
+        //still tracked, the next failure uses the next delay
+        backoff.onFailure("nagilum", null);
+        ticker.advance(4, TimeUnit.SECONDS);
+        Assert.assertTrue(backoff.isUserBlocked("nagilum"));
+
+        //forgotten
+        ticker.advance(11, TimeUnit.MINUTES);
+        backoff.onFailure("nagilum", null);
+        Assert.assertFalse(backoff.isUserBlocked("nagilum"));
+    }
+
+    @Test
+    public void testUserAndAddressBlockedSeparately() {
+        final AuthFailureBackoff backoff = new AuthFailureBackoff(SETTINGS, new FakeTicker());
+
+        //one user from different addresses
+        backoff.onFailure("nagilum", "10.0.0.1");
+        backoff.onFailure("nagilum", "10.0.0.2");
+        backoff.onFailure("nagilum", "10.0.0.3");
+        Assert.assertTrue(backoff.isUserBlocked("nagilum"));
+        Assert.assertFalse(backoff.isAddressBlocked("10.0.0.1"));
+        Assert.assertFalse(backoff.isUserBlocked("spock"));
+
+        //different users from one address
+        backoff.onFailure("kirk", "10.0.0.4");
+        backoff.onFailure("picard", "10.0.0.4");
+        backoff.onFailure("sisko", "10.0.0.4");
+        Assert.assertTrue(backoff.isAddressBlocked("10.0.0.4"));
+        Assert.assertFalse(backoff.isUserBlocked("kirk"));
+        Assert.assertFalse(backoff.isUserBlocked("sisko"));
+        Assert.assertFalse(backoff.isAddressBlocked("10.0.0.5"));
+
+        //user names and addresses do not collide
+        backoff.onFailure(null, "nagilum");
+        Assert.assertFalse(backoff.isAddressBlocked("nagilum"));
+        Assert.assertFalse(backoff.isUserBlocked(null));
+        Assert.assertFalse(backoff.isAddressBlocked(null));
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2017 floragunn GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.floragunn.searchguard.auth;
+
+import org.elasticsearch.common.settings.Settings;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Sets;
+
+public class BackendRegistryTests {
+
+    private static final Settings USERS = Settings.settingsBuilder()
+            .put("nagilum.hash", "$2a$12$abc")
+            .putArray("nagilum.roles", "admin")
+            .put("spock.hash", "$2a$12$def")
+            .putArray("spock.roles", "readall")
+            .put("kirk.hash", "$2a$12$ghi")
+            .put("kirk.username", "captain")
+            .build();
+
+    @Test
+    public void testUnchanged() {
+        final Settings same = Settings.settingsBuilder().put(USERS).build();
+        Assert.assertTrue(BackendRegistry.changedInternalUsers(USERS, same).isEmpty());
+    }
+
+    @Test
+    public void testAddedUser() {
+        final Settings current = Settings.settingsBuilder().put(USERS)
+                .put("picard.hash", "$2a$12$jkl")
+                .build();
+        Assert.assertEquals(Sets.newHashSet("picard"), BackendRegistry.changedInternalUsers(USERS, current));
+    }
+
+    @Test
+    public void testRemovedUser() {
+        final Settings withoutSpock = Settings.settingsBuilder()
+                .put("nagilum.hash", "$2a$12$abc")
+                .putArray("nagilum.roles", "admin")
+                .put("kirk.hash", "$2a$12$ghi")
+                .put("kirk.username", "captain")
+                .build();
+        Assert.assertEquals(Sets.newHashSet("spock"), BackendRegistry.changedInternalUsers(USERS, withoutSpock));
+
+        //the alias is evicted with the removed user
+        final Settings withoutKirk = Settings.settingsBuilder()
+                .put("nagilum.hash", "$2a$12$abc")
+                .putArray("nagilum.roles", "admin")
+                .put("spock.hash", "$2a$12$def")
+                .putArray("spock.roles", "readall")
+                .build();
+        Assert.assertEquals(Sets.newHashSet("kirk", "captain"), BackendRegistry.changedInternalUsers(USERS, withoutKirk));
+    }
+
+    @Test
+    public void testChangedRoles() {
+        final Settings current = Settings.settingsBuilder().put(USERS)
+                .putArray("spock.roles", "readall", "kibanauser")
+                .build();
+        Assert.assertEquals(Sets.newHashSet("spock"), BackendRegistry.changedInternalUsers(USERS, current));
+    }
+
+    @Test
+    public void testChangedHash() {
+        final Settings current = Settings.settingsBuilder().put(USERS)
+                .put("nagilum.hash", "$2a$12$xyz")
+                .build();
+        Assert.assertEquals(Sets.newHashSet("nagilum"), BackendRegistry.changedInternalUsers(USERS, current));
+    }
+
+    @Test
+    public void testRenamedAlias() {
+        final Settings current = Settings.settingsBuilder().put(USERS)
+                .put("kirk.username", "admiral")
+                .build();
+        //users are cached under the alias, so both the old and the new one are evicted
+        Assert.assertEquals(Sets.newHashSet("kirk", "captain", "admiral"), BackendRegistry.changedInternalUsers(USERS, current));
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2017 floragunn GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.floragunn.searchguard.auth;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.floragunn.searchguard.user.AuthCredentials;
+import com.floragunn.searchguard.user.User;
+import com.google.common.collect.Sets;
+
+public class RoleResolverTests {
+
+    @Test
+    public void testAllBackends() {
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final RoleResolver resolver = new RoleResolver(Arrays.<AuthorizationBackend> asList(new RoleBackend("role1", 0),
+                    new RoleBackend("role2", 0)), Arrays.asList(1000L, 1000L), executor);
+            final User user = new User("nagilum");
+
+            Assert.assertTrue(resolver.fillRoles(user));
+            Assert.assertEquals(Sets.newHashSet("role1", "role2"), user.getRoles());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testPartialRolesOnTimeout() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final RoleBackend slow = new RoleBackend("slow", 10000);
+            //the slow backend is the last one which used to run inline without timeout
+            final RoleResolver resolver = new RoleResolver(Arrays.<AuthorizationBackend> asList(new RoleBackend("fast", 0), slow),
+                    Arrays.asList(1000L, 100L), executor);
+            final User user = new User("nagilum");
+
+            final long start = System.nanoTime();
+            Assert.assertFalse(resolver.fillRoles(user));
+            Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5000);
+            user.seal();
+
+            //the cancelled backend answers late, this must neither fail nor modify the sealed user
+            Assert.assertTrue(slow.done.await(10, TimeUnit.SECONDS));
+            Assert.assertNull(slow.failure.get());
+            Assert.assertEquals(Sets.newHashSet("fast"), user.getRoles());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testWithoutExecutor() {
+        final RoleResolver resolver = new RoleResolver(Arrays.<AuthorizationBackend> asList(new RoleBackend("role1", 0)),
+                Arrays.asList(1000L), null);
+        final User user = new User("nagilum");
+
+        Assert.assertTrue(resolver.fillRoles(user));
+        Assert.assertEquals(Sets.newHashSet("role1"), user.getRoles());
+    }
+
+    /**
+     * Adds one role after the given delay, also if interrupted
+     */
+    private static class RoleBackend implements AuthorizationBackend {
+
+        private final String role;
+        private final long delayMs;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+
+        private RoleBackend(final String role, final long delayMs) {
+            this.role = role;
+            this.delayMs = delayMs;
+        }
+
+        @Override
+        public String getType() {
+            return "test";
+        }
+
+        @Override
+        public void fillRoles(final User user, final AuthCredentials authCreds) {
+            try {
+                if (delayMs > 0) {
+                    Thread.sleep(delayMs);
+                }
+            } catch (final InterruptedException e) {
+                //answer anyway
+            }
+
+            try {
+                user.addRole(role);
+            } catch (final RuntimeException e) {
+                failure.set(e);
+            } finally {
+                done.countDown();
+            }
+        }
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright 2017 floragunn GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.floragunn.searchguard.auth;
+
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.elasticsearch.common.settings.Settings;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.floragunn.searchguard.user.User;
+import com.google.common.base.Ticker;
+
+public class UserCacheTests {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(final Runnable command) {
+            command.run();
+        }
+    };
+
+    @Test
+    public void testRefreshFailureKeepsStaleEntry() throws Exception {
+        final FakeTicker ticker = new FakeTicker();
+        final UserCache<String> cache = new UserCache<String>("test", Settings.settingsBuilder()
+                .put("ttl_minutes", 60)
+                .put("refresh_after_write_minutes", 1)
+                .build(), DIRECT, ticker);
+
+        Assert.assertTrue(cache.isRefreshAhead());
+
+        final User user = User.builder("nagilum").role("role1").build();
+        Assert.assertSame(user, cache.get("nagilum", new CountingLoader(user)));
+
+        ticker.advance(2, TimeUnit.MINUTES);
+
+        final CountingLoader failing = new CountingLoader(null);
+        Assert.assertSame(user, cache.get("nagilum", failing));
+        Assert.assertEquals(1, failing.count.get());
+        Assert.assertEquals(1, cache.getRefreshFailureCount());
+        Assert.assertEquals(0, cache.getRefreshCount());
+        Assert.assertSame(user, cache.getIfPresent("nagilum"));
+
+        //next access tries again
+        final User refreshed = User.builder("nagilum").role("role2").build();
+        Assert.assertSame(user, cache.get("nagilum", new CountingLoader(refreshed)));
+        Assert.assertEquals(1, cache.getRefreshCount());
+        Assert.assertSame(refreshed, cache.getIfPresent("nagilum"));
+    }
+
+    @Test
+    public void testRequestStateOnlyCopiedForRefresh() throws Exception {
+        final FakeTicker ticker = new FakeTicker();
+        final UserCache<String> cache = new UserCache<String>("test", Settings.settingsBuilder()
+                .put("ttl_minutes", 60)
+                .put("refresh_after_write_minutes", 1)
+                .build(), DIRECT, ticker);
+
+        final User user = User.builder("nagilum").build();
+        final CopyCountingLoader loader = new CopyCountingLoader(user);
+        Assert.assertSame(user, cache.get("nagilum", loader));
+
+        //hits before the entry is due for a refresh do not copy the credentials
+        for (int i = 0; i < 10; i++) {
+            Assert.assertSame(user, cache.get("nagilum", loader));
+        }
+        Assert.assertEquals(0, loader.copies.get());
+
+        ticker.advance(2, TimeUnit.MINUTES);
+        Assert.assertSame(user, cache.get("nagilum", loader));
+        Assert.assertEquals(1, loader.copies.get());
+        //the copy was released after the refresh, the request loader is released by its caller
+        Assert.assertEquals(1, loader.released.get());
+        Assert.assertEquals(1, cache.getRefreshCount());
+    }
+
+    @Test
+    public void testUncachedUser() throws Exception {
+        final UserCache<String> cache = new UserCache<String>("test", Settings.EMPTY, null, new FakeTicker());
+        final User partial = User.builder("nagilum").role("role1").build();
+
+        final User user = cache.get("nagilum", new Callable<User>() {
+            @Override
+            public User call() throws Exception {
+                throw new UserCache.UncachedUserException(partial, "timeout");
+            }
+        });
+
+        Assert.assertSame(partial, user);
+        Assert.assertFalse(cache.contains("nagilum"));
+
+        //not remembered as failure either
+        final User complete = User.builder("nagilum").role("role1").role("role2").build();
+        Assert.assertSame(complete, cache.get("nagilum", new CountingLoader(complete)));
+        Assert.assertTrue(cache.contains("nagilum"));
+    }
+
+    @Test
+    public void testNegativeTtl() throws Exception {
+        final FakeTicker ticker = new FakeTicker();
+        final UserCache<String> cache = new UserCache<String>("test", Settings.settingsBuilder()
+                .put("negative_ttl_seconds", 5)
+                .build(), null, ticker);
+
+        final CountingLoader failing = new CountingLoader(null);
+        assertFails(cache, failing);
+        Assert.assertEquals(1, failing.count.get());
+
+        //remembered failure, backends are not called again
+        ticker.advance(4, TimeUnit.SECONDS);
+        assertFails(cache, failing);
+        Assert.assertEquals(1, failing.count.get());
+        Assert.assertEquals(1, cache.getNegativeHitCount());
+
+        //expired
+        ticker.advance(2, TimeUnit.SECONDS);
+        final User user = User.builder("nagilum").build();
+        Assert.assertSame(user, cache.get("nagilum", new CountingLoader(user)));
+        Assert.assertEquals(1, cache.getNegativeHitCount());
+    }
+
+    @Test
+    public void testNegativeTtlDisabled() throws Exception {
+        final UserCache<String> cache = new UserCache<String>("test", Settings.settingsBuilder()
+                .put("negative_ttl_seconds", 0)
+                .build(), null, new FakeTicker());
+
+        final CountingLoader failing = new CountingLoader(null);
+        assertFails(cache, failing);
+        assertFails(cache, failing);
+        Assert.assertEquals(2, failing.count.get());
+        Assert.assertEquals(0, cache.getNegativeHitCount());
+    }
+
+    @Test
+    public void testInvalidateUsersClearsFailures() throws Exception {
+        final UserCache<String> cache = new UserCache<String>("test", Settings.EMPTY, null, new FakeTicker());
+
+        final CountingLoader failing = new CountingLoader(null);
+        assertFails(cache, failing);
+        cache.invalidateUsers(Collections.singleton("nagilum"));
+        assertFails(cache, failing);
+        Assert.assertEquals(2, failing.count.get());
+    }
+
+    private static void assertFails(final UserCache<String> cache, final Callable<User> loader) {
+        try {
+            cache.get("nagilum", loader);
+            Assert.fail();
+        } catch (final ExecutionException e) {
+            Assert.assertEquals("no such user", e.getCause().getMessage());
+        }
+    }
+
+    /**
+     * Counts the copies (and released copies) made for background refreshes
+     */
+    static class CopyCountingLoader implements UserCache.RefreshableLoader {
+
+        private final User user;
+        private final AtomicInteger copies;
+        private final AtomicInteger released;
+
+        CopyCountingLoader(final User user) {
+            this(user, new AtomicInteger(), new AtomicInteger());
+        }
+
+        private CopyCountingLoader(final User user, final AtomicInteger copies, final AtomicInteger released) {
+            this.user = user;
+            this.copies = copies;
+            this.released = released;
+        }
+
+        @Override
+        public User call() {
+            return user;
+        }
+
+        @Override
+        public UserCache.RefreshableLoader copyForRefresh() {
+            copies.incrementAndGet();
+            return new CopyCountingLoader(user, copies, released);
+        }
+
+        @Override
+        public void release() {
+            released.incrementAndGet();
+        }
+    }
+
+    static class FakeTicker extends Ticker {
+
+        private final AtomicLong nanos = new AtomicLong();
+
+        @Override
+        public long read() {
+            return nanos.get();
+        }
+
+        void advance(final long time, final TimeUnit unit) {
+            nanos.addAndGet(unit.toNanos(time));
+        }
+    }
+
+    /**
+     * Returns the given user or fails if it is null
+     */
+    static class CountingLoader implements Callable<User> {
+
+        private final User user;
+        private final AtomicInteger count = new AtomicInteger();
+
+        CountingLoader(final User user) {
+            this.user = user;
+        }
+
+        @Override
+        public User call() throws Exception {
+            count.incrementAndGet();
+            if (user == null) {
+                throw new Exception("no such user");
+            }
+            return user;
+        }
+    }
+}
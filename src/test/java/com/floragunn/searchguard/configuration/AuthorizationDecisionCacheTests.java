@@ -0,0 +1,112 @@
+/*
+ * Copyright 2017 floragunn GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.floragunn.searchguard.configuration;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.elasticsearch.cluster.metadata.MetaData;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.floragunn.searchguard.configuration.AuthorizationDecisionCache.Decision;
+import com.floragunn.searchguard.configuration.AuthorizationDecisionCache.Key;
+import com.floragunn.searchguard.configuration.PrivilegesEvaluator.IndexType;
+import com.google.common.collect.Sets;
+
+public class AuthorizationDecisionCacheTests {
+
+    @Test
+    public void testInvalidateOnMetaDataChange() {
+        final AuthorizationDecisionCache cache = new AuthorizationDecisionCache(1000);
+        final CountingLoader loader = new CountingLoader();
+        final Key key = key(Sets.newHashSet("logs"));
+
+        cache.checkMetaData(metaData("uuid", 1));
+        cache.get(key, loader);
+        cache.get(key, loader);
+        Assert.assertEquals(1, loader.count.get());
+
+        cache.checkMetaData(metaData("uuid", 1));
+        cache.get(key, loader);
+        Assert.assertEquals(1, loader.count.get());
+
+        cache.checkMetaData(metaData("uuid", 2));
+        cache.get(key, loader);
+        Assert.assertEquals(2, loader.count.get());
+
+        cache.checkMetaData(metaData("other", 2));
+        cache.get(key, loader);
+        Assert.assertEquals(3, loader.count.get());
+    }
+
+    @Test
+    public void testBoundedByIndices() {
+        final AuthorizationDecisionCache cache = new AuthorizationDecisionCache(100);
+        final CountingLoader loader = new CountingLoader();
+
+        final Set<String> manyIndices = new HashSet<String>();
+        for (int i = 0; i < 200; i++) {
+            manyIndices.add("index" + i);
+        }
+
+        final Key large = key(manyIndices);
+        cache.get(large, loader);
+        cache.get(large, loader);
+        Assert.assertEquals(2, loader.count.get());
+
+        final Key small = key(Sets.newHashSet("logs"));
+        cache.get(small, loader);
+        cache.get(small, loader);
+        Assert.assertEquals(3, loader.count.get());
+    }
+
+    @Test
+    public void testDisabled() {
+        final AuthorizationDecisionCache cache = new AuthorizationDecisionCache(0);
+        final CountingLoader loader = new CountingLoader();
+        final Key key = key(Sets.newHashSet("logs"));
+
+        Assert.assertFalse(cache.isEnabled());
+        cache.get(key, loader);
+        cache.get(key, loader);
+        Assert.assertEquals(2, loader.count.get());
+    }
+
+    private static Key key(final Set<String> indices) {
+        return new Key(null, Sets.newHashSet("sg_role"), "indices:data/read/search", indices, Sets.newHashSet("*"), null, false, 1);
+    }
+
+    private static MetaData metaData(final String clusterUUID, final long version) {
+        return MetaData.builder().clusterUUID(clusterUUID).version(version).build();
+    }
+
+    private static class CountingLoader implements Callable<Decision> {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Decision call() {
+            count.incrementAndGet();
+            return new Decision(true, null, null, Collections.<IndexType> emptySet());
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2017 floragunn GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.floragunn.searchguard.configuration;
+
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.settings.Settings;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ConfigurationLoaderTests {
+
+    private static final String ROLES = "{\"sg_role\":{\"cluster\":[\"CLUSTER_MONITOR\"]}}";
+
+    @Test
+    public void testIdenticalContentReturnsSameInstance() {
+        final ConfigurationLoader loader = new ConfigurationLoader(null, Settings.EMPTY);
+
+        final Settings first = loader.toSettings(new BytesArray(ROLES), "roles", 1);
+        Assert.assertNotNull(first);
+        Assert.assertEquals("CLUSTER_MONITOR", first.getAsArray("sg_role.cluster")[0]);
+
+        //a new document version with the same content
+        Assert.assertSame(first, loader.toSettings(new BytesArray(ROLES), "roles", 2));
+    }
+
+    @Test
+    public void testChangedContentIsParsed() {
+        final ConfigurationLoader loader = new ConfigurationLoader(null, Settings.EMPTY);
+
+        final Settings first = loader.toSettings(new BytesArray(ROLES), "roles", 1);
+        final Settings changed = loader.toSettings(new BytesArray("{\"sg_role\":{\"cluster\":[\"*\"]}}"), "roles", 2);
+        Assert.assertNotSame(first, changed);
+        Assert.assertEquals("*", changed.getAsArray("sg_role.cluster")[0]);
+
+        //back to the first content
+        final Settings reverted = loader.toSettings(new BytesArray(ROLES), "roles", 3);
+        Assert.assertNotSame(changed, reverted);
+        Assert.assertEquals(first.getAsMap(), reverted.getAsMap());
+    }
+
+    @Test
+    public void testTrackedPerType() {
+        final ConfigurationLoader loader = new ConfigurationLoader(null, Settings.EMPTY);
+
+        final Settings roles = loader.toSettings(new BytesArray(ROLES), "roles", 1);
+        final Settings other = loader.toSettings(new BytesArray(ROLES), "actiongroups", 1);
+        Assert.assertNotSame(roles, other);
+        Assert.assertSame(roles, loader.toSettings(new BytesArray(ROLES), "roles", 1));
+    }
+
+    @Test
+    public void testInvalidContent() {
+        final ConfigurationLoader loader = new ConfigurationLoader(null, Settings.EMPTY);
+        Assert.assertNull(loader.toSettings(new BytesArray(""), "roles", 1));
+        Assert.assertNull(loader.toSettings(new BytesArray("{invalid"), "roles", 1));
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2017 floragunn GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.floragunn.searchguard.configuration;
+
+import org.apache.lucene.util.FixedBitSet;
+import org.elasticsearch.Version;
+import org.elasticsearch.cluster.metadata.AliasMetaData;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.cluster.metadata.MetaData;
+import org.elasticsearch.common.settings.Settings;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class IndexOrdinalsTests {
+
+    @Test
+    public void testOrdinals() {
+        final IndexOrdinals ordinals = new IndexOrdinals(metaData(index("logs-1"), index("logs-2"), index("other")));
+
+        Assert.assertEquals(3, ordinals.size());
+        Assert.assertEquals(3, ordinals.empty().length());
+        Assert.assertEquals(0, ordinals.empty().cardinality());
+
+        for (final String index : new String[] { "logs-1", "logs-2", "other" }) {
+            Assert.assertEquals(index, ordinals.index(ordinals.ordinal(index)));
+        }
+
+        Assert.assertEquals(-1, ordinals.ordinal("missing"));
+        Assert.assertEquals(-1, ordinals.ordinal("logs-*"));
+
+        //names which are not concrete indices are ignored
+        final FixedBitSet bits = ordinals.of(new String[] { "logs-1", "missing", "_all" });
+        Assert.assertEquals(1, bits.cardinality());
+        Assert.assertTrue(bits.get(ordinals.ordinal("logs-1")));
+    }
+
+    @Test
+    public void testOpenAndClosed() {
+        final IndexOrdinals ordinals = new IndexOrdinals(metaData(index("logs-1"), index("logs-closed").state(IndexMetaData.State.CLOSE)));
+
+        Assert.assertEquals(2, ordinals.size());
+        Assert.assertTrue(ordinals.open().get(ordinals.ordinal("logs-1")));
+        Assert.assertFalse(ordinals.open().get(ordinals.ordinal("logs-closed")));
+
+        //matching is independent of the state
+        Assert.assertEquals(2, ordinals.matching("logs-*").cardinality());
+        Assert.assertEquals(2, ordinals.matchingExpression("logs-*").cardinality());
+    }
+
+    @Test
+    public void testMatchingVersusMatchingExpression() {
+        final IndexOrdinals ordinals = new IndexOrdinals(metaData(index("logs-1"), index("logs-2"), index("logs-10"), index("other")));
+
+        //role patterns support ? and regular expressions
+        Assert.assertEquals(2, ordinals.matching("logs-?").cardinality());
+        Assert.assertEquals(2, ordinals.matching("/logs-[12]/").cardinality());
+        Assert.assertEquals(3, ordinals.matching("logs-*").cardinality());
+        Assert.assertEquals(4, ordinals.matching("*").cardinality());
+        Assert.assertEquals(1, ordinals.matching("other").cardinality());
+
+        //request expressions are resolved like elasticsearch does, only * is a wildcard
+        Assert.assertEquals(0, ordinals.matchingExpression("logs-?").cardinality());
+        Assert.assertEquals(0, ordinals.matchingExpression("/logs-[12]/").cardinality());
+        Assert.assertEquals(3, ordinals.matchingExpression("logs-*").cardinality());
+        Assert.assertEquals(4, ordinals.matchingExpression("*").cardinality());
+        Assert.assertEquals(2, ordinals.matchingExpression("*s-1*").cardinality());
+
+        //cached per pattern
+        Assert.assertSame(ordinals.matching("logs-*"), ordinals.matching("logs-*"));
+        Assert.assertSame(ordinals.matchingExpression("logs-*"), ordinals.matchingExpression("logs-*"));
+    }
+
+    @Test
+    public void testAliases() {
+        final IndexOrdinals ordinals = new IndexOrdinals(metaData(index("logs-1").putAlias(AliasMetaData.builder("current")), index("logs-2")));
+
+        Assert.assertFalse(ordinals.hasFilteredAliases());
+        Assert.assertTrue(ordinals.expressionMatchesAlias("cur*"));
+        Assert.assertTrue(ordinals.expressionMatchesAlias("*"));
+        Assert.assertFalse(ordinals.expressionMatchesAlias("logs-*"));
+        //aliases are not concrete indices
+        Assert.assertEquals(-1, ordinals.ordinal("current"));
+        Assert.assertEquals(0, ordinals.matchingExpression("cur*").cardinality());
+
+        final IndexOrdinals filtered = new IndexOrdinals(metaData(index("logs-1"),
+                index("logs-2").putAlias(AliasMetaData.builder("info").filter("{\"term\":{\"level\":\"info\"}}"))));
+        Assert.assertTrue(filtered.hasFilteredAliases());
+    }
+
+    static IndexMetaData.Builder index(final String name) {
+        return IndexMetaData.builder(name)
+                .settings(Settings.settingsBuilder().put(IndexMetaData.SETTING_VERSION_CREATED, Version.CURRENT))
+                .numberOfShards(1)
+                .numberOfReplicas(0);
+    }
+
+    static MetaData metaData(final IndexMetaData.Builder... indices) {
+        final MetaData.Builder metaData = MetaData.builder().clusterUUID("uuid").version(1);
+
+        for (final IndexMetaData.Builder index : indices) {
+            metaData.put(index, false);
+        }
+
+        return metaData.build();
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2017 floragunn GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.floragunn.searchguard.configuration;
+
+import org.elasticsearch.Version;
+import org.elasticsearch.action.support.IndicesOptions;
+import org.elasticsearch.cluster.ClusterName;
+import org.elasticsearch.cluster.ClusterState;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
+import org.elasticsearch.cluster.metadata.MetaData;
+import org.elasticsearch.common.settings.Settings;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Sets;
+
+public class IndexResolutionCacheTests {
+
+    private static final IndicesOptions OPTIONS = IndicesOptions.lenientExpandOpen();
+
+    @Test
+    public void testInvalidateOnMetaDataChange() {
+        final IndexResolutionCache cache = new IndexResolutionCache(new IndexNameExpressionResolver(Settings.EMPTY), 1000);
+        final ClusterState v1 = clusterState("uuid", 1, "logs-1");
+        final ClusterState v2 = clusterState("uuid", 2, "logs-1", "logs-2");
+
+        Assert.assertEquals(Sets.newHashSet("logs-1"), Sets.newHashSet(cache.concreteIndices(v1, OPTIONS, "logs-*")));
+        Assert.assertEquals(Sets.newHashSet("logs-1"), Sets.newHashSet(cache.concreteIndices(v1, OPTIONS, "logs-*")));
+        Assert.assertEquals(1, cache.stats().hitCount());
+        Assert.assertEquals(1, cache.stats().missCount());
+        Assert.assertEquals(1, cache.ordinals(v1).size());
+
+        //new metadata version, no stale result
+        Assert.assertEquals(Sets.newHashSet("logs-1", "logs-2"), Sets.newHashSet(cache.concreteIndices(v2, OPTIONS, "logs-*")));
+        Assert.assertEquals(2, cache.stats().missCount());
+        Assert.assertEquals(2, cache.ordinals(v2).size());
+
+        //evaluation against outdated metadata is resolved on its own and keeps the current generation
+        Assert.assertEquals(Sets.newHashSet("logs-1"), Sets.newHashSet(cache.concreteIndices(v1, OPTIONS, "logs-*")));
+        Assert.assertEquals(3, cache.stats().missCount());
+        Assert.assertEquals(Sets.newHashSet("logs-1", "logs-2"), Sets.newHashSet(cache.concreteIndices(v2, OPTIONS, "logs-*")));
+        Assert.assertEquals(2, cache.stats().hitCount());
+
+        //same version of another cluster
+        final ClusterState other = clusterState("other", 2, "logs-3");
+        Assert.assertEquals(Sets.newHashSet("logs-3"), Sets.newHashSet(cache.concreteIndices(other, OPTIONS, "logs-*")));
+        Assert.assertEquals(4, cache.stats().missCount());
+    }
+
+    @Test
+    public void testDateMathNotCached() {
+        final IndexResolutionCache cache = new IndexResolutionCache(new IndexNameExpressionResolver(Settings.EMPTY), 1000);
+        final ClusterState state = clusterState("uuid", 1, "logs-1");
+
+        cache.concreteIndices(state, OPTIONS, "<logs-{now/d}>");
+        cache.concreteIndices(state, OPTIONS, "logs-1", "<logs-{now/d}>");
+        Assert.assertEquals(0, cache.stats().hitCount());
+        Assert.assertEquals(0, cache.stats().missCount());
+    }
+
+    @Test
+    public void testDisabled() {
+        final IndexResolutionCache cache = new IndexResolutionCache(new IndexNameExpressionResolver(Settings.EMPTY), 0);
+        final ClusterState state = clusterState("uuid", 1, "logs-1");
+
+        Assert.assertEquals(Sets.newHashSet("logs-1"), Sets.newHashSet(cache.concreteIndices(state, OPTIONS, "logs-*")));
+        Assert.assertEquals(0, cache.stats().missCount());
+    }
+
+    private static ClusterState clusterState(final String clusterUUID, final long version, final String... indices) {
+        final MetaData.Builder metaData = MetaData.builder().clusterUUID(clusterUUID).version(version);
+
+        for (final String index : indices) {
+            metaData.put(IndexMetaData.builder(index)
+                    .settings(Settings.settingsBuilder().put(IndexMetaData.SETTING_VERSION_CREATED, Version.CURRENT))
+                    .numberOfShards(1)
+                    .numberOfReplicas(0), false);
+        }
+
+        return ClusterState.builder(new ClusterName("test")).metaData(metaData).build();
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2017 floragunn GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.floragunn.searchguard.configuration;
+
+import java.util.Set;
+
+import org.elasticsearch.Version;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.cluster.ClusterName;
+import org.elasticsearch.cluster.ClusterState;
+import org.elasticsearch.cluster.metadata.AliasMetaData;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
+import org.elasticsearch.cluster.metadata.MetaData;
+import org.elasticsearch.common.settings.Settings;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.floragunn.searchguard.user.User;
+import com.google.common.collect.Sets;
+
+public class PrivilegesEvaluatorTests {
+
+    private static final String SEARCH = "indices:data/read/search";
+    private static final User USER = new User("nagilum");
+
+    private static final SgRoles ROLES = SgRoles.compile(Settings.settingsBuilder()
+            .putArray("sg_logs.indices.logs-*.*", "READ")
+            .putArray("sg_everything.indices.*.*", "READ")
+            .putArray("sg_dls.indices.logs-*.*", "READ")
+            .put("sg_dls.indices.logs-*._dls_", "{\"term\":{\"level\":\"info\"}}")
+            .putArray("sg_fls.indices.other.*", "READ")
+            .putArray("sg_fls.indices.other._fls_", "message")
+            .putArray("sg_typed.indices.logs-*.doc", "READ")
+            .build(), new ActionGroupHolder(Settings.settingsBuilder().putArray("READ", "indices:data/read*").build()));
+
+    private static final ClusterState STATE = clusterState(index("logs-1"), index("logs-2"), index("logs-closed").state(IndexMetaData.State.CLOSE),
+            index("searchguard"), index("other"));
+
+    @Test
+    public void testPermitted() {
+        Assert.assertTrue(implies("sg_logs", new SearchRequest("logs-1")));
+        Assert.assertTrue(implies("sg_logs", new SearchRequest("logs-*")));
+        Assert.assertTrue(implies("sg_logs", new SearchRequest("logs-1", "logs-2")));
+        Assert.assertTrue(implies("sg_everything", new SearchRequest("other")));
+        //one mapped role is sufficient
+        Assert.assertTrue(implies(Sets.newHashSet("sg_logs", "sg_unknown"), SEARCH, new SearchRequest("logs-1"), STATE));
+    }
+
+    @Test
+    public void testNotPermitted() {
+        Assert.assertFalse(implies(Sets.newHashSet("sg_logs"), "indices:admin/delete", new SearchRequest("logs-1"), STATE));
+        Assert.assertFalse(implies("sg_logs", new SearchRequest("other")));
+        Assert.assertFalse(implies("sg_logs", new SearchRequest("logs-1", "other")));
+        Assert.assertFalse(implies("sg_unknown", new SearchRequest("logs-1")));
+    }
+
+    @Test
+    public void testDlsOrFls() {
+        Assert.assertFalse(implies("sg_dls", new SearchRequest("logs-1")));
+        Assert.assertFalse(implies(Sets.newHashSet("sg_logs", "sg_dls"), SEARCH, new SearchRequest("logs-1"), STATE));
+        Assert.assertFalse(implies(Sets.newHashSet("sg_everything", "sg_fls"), SEARCH, new SearchRequest("logs-1"), STATE));
+    }
+
+    @Test
+    public void testFilteredAliases() {
+        final ClusterState state = clusterState(index("logs-1").putAlias(AliasMetaData.builder("info").filter("{\"term\":{\"level\":\"info\"}}")),
+                index("logs-2"));
+
+        Assert.assertFalse(implies(Sets.newHashSet("sg_logs"), SEARCH, new SearchRequest("logs-2"), state));
+    }
+
+    @Test
+    public void testSpecialExpressions() {
+        Assert.assertFalse(implies("sg_everything", new SearchRequest()));
+        Assert.assertFalse(implies("sg_everything", new SearchRequest("_all")));
+        Assert.assertFalse(implies("sg_everything", new SearchRequest("")));
+        Assert.assertFalse(implies("sg_logs", new SearchRequest("-logs-1")));
+        Assert.assertFalse(implies("sg_logs", new SearchRequest("logs-*", "-logs-1")));
+        Assert.assertFalse(implies("sg_logs", new SearchRequest("+logs-1")));
+        Assert.assertFalse(implies("sg_logs", new SearchRequest("<logs-{now/d}>")));
+        Assert.assertFalse(implies("sg_logs", new SearchRequest("logs-1,logs-2")));
+    }
+
+    @Test
+    public void testSearchguardIndex() {
+        Assert.assertFalse(implies("sg_everything", new SearchRequest("searchguard")));
+        Assert.assertFalse(implies("sg_everything", new SearchRequest("search*")));
+        Assert.assertFalse(implies("sg_everything", new SearchRequest("*")));
+        Assert.assertFalse(implies("sg_everything", new SearchRequest("other", "*guard")));
+    }
+
+    @Test
+    public void testAliases() {
+        final ClusterState state = clusterState(index("logs-1").putAlias(AliasMetaData.builder("logs-current")), index("logs-2"));
+        final Set<String> roles = Sets.newHashSet("sg_logs");
+
+        //the alias could point to indices not covered by the role
+        Assert.assertFalse(implies(roles, SEARCH, new SearchRequest("logs-*"), state));
+        Assert.assertFalse(implies(roles, SEARCH, new SearchRequest("logs-current"), state));
+        Assert.assertTrue(implies(roles, SEARCH, new SearchRequest("logs-2"), state));
+    }
+
+    @Test
+    public void testMissingOrClosedIndices() {
+        //would be resolved as _all
+        Assert.assertFalse(implies("sg_logs", new SearchRequest("logs-nomatch*")));
+        Assert.assertFalse(implies("sg_logs", new SearchRequest("logs-9")));
+        Assert.assertFalse(implies("sg_logs", new SearchRequest("logs-closed")));
+        //only matches a closed index, not expanded with the default options
+        Assert.assertFalse(implies("sg_logs", new SearchRequest("logs-c*")));
+    }
+
+    @Test
+    public void testTypes() {
+        Assert.assertFalse(implies("sg_typed", new SearchRequest("logs-1")));
+        Assert.assertFalse(implies("sg_typed", new SearchRequest("logs-1").types("other")));
+        Assert.assertTrue(implies("sg_typed", new SearchRequest("logs-1").types("doc")));
+    }
+
+    @Test
+    public void testCanSkipExpansion() {
+        final PrivilegesInterceptor defaultInterceptor = new PrivilegesInterceptor(null, null, null);
+
+        Assert.assertTrue(PrivilegesEvaluator.canSkipExpansion(SEARCH, new SearchRequest("logs-1"), defaultInterceptor, false));
+        Assert.assertFalse(PrivilegesEvaluator.canSkipExpansion("indices:data/write/bulk", new BulkRequest(), defaultInterceptor, false));
+        Assert.assertFalse(PrivilegesEvaluator.canSkipExpansion("indices:data/read/mget", new MultiGetRequest(), defaultInterceptor, false));
+        Assert.assertFalse(PrivilegesEvaluator.canSkipExpansion("indices:data/read/scroll", new SearchRequest("logs-1"), defaultInterceptor, false));
+        Assert.assertFalse(PrivilegesEvaluator.canSkipExpansion("indices:admin/template/get", new SearchRequest("logs-1"), defaultInterceptor, false));
+
+        //e.g. kibana multitenancy, which needs the resolved indices
+        final PrivilegesInterceptor customInterceptor = new PrivilegesInterceptor(null, null, null) {
+        };
+        Assert.assertFalse(PrivilegesEvaluator.canSkipExpansion(SEARCH, new SearchRequest("logs-1"), customInterceptor, false));
+    }
+
+    private static boolean implies(final String sgRole, final SearchRequest request) {
+        return implies(Sets.newHashSet(sgRole), SEARCH, request, STATE);
+    }
+
+    private static boolean implies(final Set<String> sgRoles, final String action, final SearchRequest request, final ClusterState state) {
+        return PrivilegesEvaluator.impliesWithoutExpansion(USER, action, sgRoles, request, state, ROLES,
+                new IndexResolutionCache(new IndexNameExpressionResolver(Settings.EMPTY), 1000), "searchguard");
+    }
+
+    private static IndexMetaData.Builder index(final String name) {
+        return IndexMetaData.builder(name)
+                .settings(Settings.settingsBuilder().put(IndexMetaData.SETTING_VERSION_CREATED, Version.CURRENT))
+                .numberOfShards(1)
+                .numberOfReplicas(0);
+    }
+
+    private static ClusterState clusterState(final IndexMetaData.Builder... indices) {
+        final MetaData.Builder metaData = MetaData.builder().clusterUUID("uuid").version(1);
+
+        for (final IndexMetaData.Builder index : indices) {
+            metaData.put(index, false);
+        }
+
+        return ClusterState.builder(new ClusterName("test")).metaData(metaData).build();
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2017 floragunn GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.floragunn.searchguard.configuration;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.elasticsearch.Version;
+import org.elasticsearch.action.IndicesRequest;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.cluster.ClusterName;
+import org.elasticsearch.cluster.ClusterState;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
+import org.elasticsearch.cluster.metadata.MetaData;
+import org.elasticsearch.common.collect.Tuple;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.transport.TransportRequest;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Sets;
+
+public class RequestIndicesTests {
+
+    private static final ClusterState STATE = clusterState("logs-1", "logs-2", "other");
+
+    @Test
+    public void testBulkWithDuplicateItems() {
+        final IndexResolutionCache cache = new IndexResolutionCache(new IndexNameExpressionResolver(Settings.EMPTY), 1000);
+        final BulkRequest bulk = new BulkRequest()
+                .add(new IndexRequest("logs-1", "doc"))
+                .add(new IndexRequest("logs-1", "doc"))
+                .add(new IndexRequest("logs-2", "doc"))
+                .add(new IndexRequest("logs-1", "doc"))
+                .add(new DeleteRequest("logs-1", "log", "1"))
+                .add(new UpdateRequest("other", "doc", "1"))
+                .add(new IndexRequest("logs-2", "doc"));
+
+        final Tuple<Set<String>, Set<String>> resolved = RequestIndices.resolve(bulk, STATE, cache);
+        Assert.assertEquals(Sets.newHashSet("logs-1", "logs-2", "other"), resolved.v1());
+        Assert.assertEquals(Sets.newHashSet("doc", "log"), resolved.v2());
+        assertResolvedLikeItems(bulk, resolved);
+
+        //only the distinct items were resolved
+        Assert.assertEquals(4, cache.stats().requestCount());
+    }
+
+    @Test
+    public void testBulkWithNullAndAllIndices() {
+        final IndexResolutionCache cache = new IndexResolutionCache(new IndexNameExpressionResolver(Settings.EMPTY), 1000);
+        final BulkRequest bulk = new BulkRequest()
+                .add(new IndexRequest("logs-1", "doc"))
+                .add(new IndexRequest().type("doc"))
+                .add(new IndexRequest().type("doc"))
+                .add(new IndexRequest("_all", "doc"))
+                .add(new IndexRequest("_all", "log"));
+
+        final Tuple<Set<String>, Set<String>> resolved = RequestIndices.resolve(bulk, STATE, cache);
+        //a missing index is resolved to all indices
+        Assert.assertTrue(resolved.v1().containsAll(Sets.newHashSet("logs-1", "logs-2", "other")));
+        Assert.assertEquals(Sets.newHashSet("doc", "log"), resolved.v2());
+        assertResolvedLikeItems(bulk, resolved);
+    }
+
+    @Test
+    public void testBulkWithoutTypes() {
+        final BulkRequest bulk = new BulkRequest()
+                .add(new IndexRequest("logs-1"))
+                .add(new IndexRequest("logs-1"));
+
+        final Tuple<Set<String>, Set<String>> resolved = RequestIndices.resolve(bulk, STATE,
+                new IndexResolutionCache(new IndexNameExpressionResolver(Settings.EMPTY), 1000));
+        Assert.assertEquals(Sets.newHashSet("logs-1"), resolved.v1());
+        Assert.assertEquals(Sets.newHashSet("_all"), resolved.v2());
+    }
+
+    @Test
+    public void testSingleRequests() {
+        final IndexResolutionCache cache = new IndexResolutionCache(new IndexNameExpressionResolver(Settings.EMPTY), 1000);
+
+        final Tuple<Set<String>, Set<String>> search = RequestIndices.resolve(new SearchRequest("logs-*"), STATE, cache);
+        Assert.assertEquals(Sets.newHashSet("logs-1", "logs-2"), search.v1());
+        Assert.assertEquals(Sets.newHashSet("_all"), search.v2());
+
+        final Tuple<Set<String>, Set<String>> notIndices = RequestIndices.resolve(TransportRequest.Empty.INSTANCE, STATE, cache);
+        Assert.assertEquals(Sets.newHashSet("_all"), notIndices.v1());
+        Assert.assertEquals(Sets.newHashSet("_all"), notIndices.v2());
+    }
+
+    /**
+     * Resolve every item on its own, without de-duplication, and compare with the resolved bulk request
+     */
+    private static void assertResolvedLikeItems(final BulkRequest bulk, final Tuple<Set<String>, Set<String>> resolved) {
+        final IndexResolutionCache cache = new IndexResolutionCache(new IndexNameExpressionResolver(Settings.EMPTY), 1000);
+        final Set<String> indices = new HashSet<String>();
+        final Set<String> types = new HashSet<String>();
+
+        for (final IndicesRequest item : bulk.subRequests()) {
+            indices.addAll(RequestIndices.resolve((TransportRequest) item, STATE, cache).v1());
+            types.addAll(RequestTypes.types(item));
+        }
+
+        Assert.assertEquals(indices, resolved.v1());
+        Assert.assertEquals(types, resolved.v2());
+    }
+
+    private static ClusterState clusterState(final String... indices) {
+        final MetaData.Builder metaData = MetaData.builder().clusterUUID("uuid").version(1);
+
+        for (final String index : indices) {
+            metaData.put(IndexMetaData.builder(index)
+                    .settings(Settings.settingsBuilder().put(IndexMetaData.SETTING_VERSION_CREATED, Version.CURRENT))
+                    .numberOfShards(1)
+                    .numberOfReplicas(0), false);
+        }
+
+        return ClusterState.builder(new ClusterName("test")).metaData(metaData).build();
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2017 floragunn GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.floragunn.searchguard.configuration;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.elasticsearch.action.IndicesRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.support.IndicesOptions;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Sets;
+
+public class RequestTypesTests {
+
+    @Test
+    public void testKnownRequests() {
+        Assert.assertEquals(Sets.newHashSet("doc", "log"), types(new SearchRequest("logs").types("doc", "log")));
+        Assert.assertEquals(Collections.singleton("doc"), types(new IndexRequest("logs", "doc")));
+    }
+
+    @Test
+    public void testNullType() {
+        Assert.assertTrue(types(new IndexRequest("logs")).isEmpty());
+    }
+
+    @Test
+    public void testNullTypes() {
+        Assert.assertTrue(types(new SearchRequest("logs").types((String[]) null)).isEmpty());
+    }
+
+    @Test
+    public void testSubclassOfKnownRequest() {
+        //not in the known classes, resolved with method handles
+        final SearchRequest request = new SearchRequest("logs") {
+        };
+        Assert.assertEquals(Sets.newHashSet("doc", "log"), types(request.types("doc", "log")));
+        Assert.assertTrue(types(request.types((String[]) null)).isEmpty());
+    }
+
+    @Test
+    public void testUnknownRequests() {
+        Assert.assertTrue(types(new NoTypesRequest()).isEmpty());
+
+        final TypeRequest typeRequest = new TypeRequest();
+        Assert.assertTrue(types(typeRequest).isEmpty());
+        typeRequest.type = "doc";
+        Assert.assertEquals(Collections.singleton("doc"), types(typeRequest));
+    }
+
+    private static Set<String> types(final IndicesRequest request) {
+        final Set<String> types = new HashSet<String>();
+        RequestTypes.addTypes(request, types);
+        return types;
+    }
+
+    public static class NoTypesRequest implements IndicesRequest {
+
+        @Override
+        public String[] indices() {
+            return new String[] { "logs" };
+        }
+
+        @Override
+        public IndicesOptions indicesOptions() {
+            return IndicesOptions.strictExpandOpen();
+        }
+    }
+
+    /**
+     * Has a type() but types() with another return type
+     */
+    public static class TypeRequest extends NoTypesRequest {
+
+        private String type;
+
+        public String type() {
+            return type;
+        }
+
+        public List<String> types() {
+            return Collections.singletonList("ignored");
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2017 floragunn GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.floragunn.searchguard.configuration;
+
+import static com.floragunn.searchguard.configuration.IndexOrdinalsTests.index;
+import static com.floragunn.searchguard.configuration.IndexOrdinalsTests.metaData;
+
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.floragunn.searchguard.configuration.PrivilegesEvaluator.IndexType;
+import com.floragunn.searchguard.support.WildcardMatcher;
+import com.google.common.collect.Sets;
+
+public class RequestedIndexTypesTests {
+
+    private final IndexOrdinals ordinals = new IndexOrdinals(metaData(index("logs-1"), index("logs-2"), index("other")));
+
+    @Test
+    public void testAllType() {
+        final RequestedIndexTypes requested = new RequestedIndexTypes(ordinals, Sets.newHashSet("logs-1", "logs-2"), Collections.singleton("_all"));
+        Assert.assertEquals(Sets.newHashSet(new IndexType("logs-1", "_all"), new IndexType("logs-2", "*")), requested.toSet());
+
+        //a single type does not cover all types
+        requested.remove(ordinals.matching("logs-*"), WildcardMatcher.NONE, "doc");
+        Assert.assertEquals(2, requested.toSet().size());
+
+        requested.remove(ordinals.matching("logs-1"), WildcardMatcher.NONE, "*");
+        Assert.assertEquals(Collections.singleton(new IndexType("logs-2", "*")), requested.toSet());
+
+        requested.remove(ordinals.matching("logs-*"), WildcardMatcher.NONE, "_all");
+        Assert.assertTrue(requested.isEmpty());
+        Assert.assertTrue(requested.toSet().isEmpty());
+    }
+
+    @Test
+    public void testWildcardTypes() {
+        final RequestedIndexTypes requested = new RequestedIndexTypes(ordinals, Sets.newHashSet("logs-1", "logs-2"), Sets.newHashSet("doc", "log"));
+
+        requested.remove(ordinals.matching("*"), WildcardMatcher.NONE, "d*");
+        Assert.assertEquals(Sets.newHashSet(new IndexType("logs-1", "log"), new IndexType("logs-2", "log")), requested.toSet());
+
+        requested.remove(ordinals.matching("logs-2"), WildcardMatcher.NONE, "l?g");
+        Assert.assertEquals(Collections.singleton(new IndexType("logs-1", "log")), requested.toSet());
+        Assert.assertFalse(requested.isEmpty());
+
+        requested.remove(ordinals.matching("*"), WildcardMatcher.NONE, "*");
+        Assert.assertTrue(requested.isEmpty());
+    }
+
+    @Test
+    public void testOthers() {
+        //names which are not concrete indices, e.g. expressions which could not be resolved
+        final RequestedIndexTypes requested = new RequestedIndexTypes(ordinals, Sets.newHashSet("logs-1", "missing", "_all"), Collections.singleton("doc"));
+        Assert.assertEquals(Sets.newHashSet(new IndexType("logs-1", "doc"), new IndexType("missing", "doc"), new IndexType("_all", "doc")),
+                requested.toSet());
+
+        //the ordinals of a pattern do not cover other names
+        requested.remove(ordinals.matching("*"), WildcardMatcher.NONE, "doc");
+        Assert.assertEquals(Sets.newHashSet(new IndexType("missing", "doc"), new IndexType("_all", "doc")), requested.toSet());
+
+        requested.remove(ordinals.empty(), WildcardMatcher.compile("logs-*"), "doc");
+        Assert.assertEquals(2, requested.toSet().size());
+
+        requested.remove(ordinals.empty(), WildcardMatcher.compile("missing"), "other");
+        Assert.assertEquals(2, requested.toSet().size());
+
+        requested.remove(ordinals.empty(), WildcardMatcher.compile("mis*"), "*");
+        Assert.assertEquals(Collections.singleton(new IndexType("_all", "doc")), requested.toSet());
+        Assert.assertFalse(requested.isEmpty());
+
+        requested.remove(ordinals.empty(), WildcardMatcher.compile("*"), "doc");
+        Assert.assertTrue(requested.isEmpty());
+    }
+
+    @Test
+    public void testCopy() {
+        final RequestedIndexTypes requested = new RequestedIndexTypes(ordinals, Sets.newHashSet("logs-1", "missing"), Collections.singleton("doc"));
+        final RequestedIndexTypes copy = requested.copy();
+
+        copy.remove(ordinals.matching("*"), WildcardMatcher.compile("*"), "*");
+        Assert.assertTrue(copy.isEmpty());
+        Assert.assertEquals(Sets.newHashSet(new IndexType("logs-1", "doc"), new IndexType("missing", "doc")), requested.toSet());
+    }
+
+    @Test
+    public void testTypeMatches() {
+        Assert.assertTrue(RequestedIndexTypes.typeMatches("*", "_all"));
+        Assert.assertTrue(RequestedIndexTypes.typeMatches("_all", "doc"));
+        Assert.assertTrue(RequestedIndexTypes.typeMatches("doc", "doc"));
+        Assert.assertTrue(RequestedIndexTypes.typeMatches("d?c", "doc"));
+        Assert.assertFalse(RequestedIndexTypes.typeMatches("doc", "_all"));
+        Assert.assertFalse(RequestedIndexTypes.typeMatches("doc", "*"));
+        Assert.assertFalse(RequestedIndexTypes.typeMatches("doc", "log"));
+        //no regular expressions
+        Assert.assertFalse(RequestedIndexTypes.typeMatches("/d.c/", "doc"));
+    }
+}
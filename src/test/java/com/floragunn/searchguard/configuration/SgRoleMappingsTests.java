@@ -0,0 +1,115 @@
+/*
+ * Copyright 2017 floragunn GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.floragunn.searchguard.configuration;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.transport.InetSocketTransportAddress;
+import org.elasticsearch.common.transport.TransportAddress;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.floragunn.searchguard.user.User;
+import com.google.common.collect.Sets;
+
+public class SgRoleMappingsTests {
+
+    private static final SgRoleMappings MAPPINGS = SgRoleMappings.compile(Settings.settingsBuilder()
+            .putArray("sg_admin.backendroles", "admin")
+            .putArray("sg_nagilum.users", "nagilum")
+            .putArray("sg_starfleet.users", "kirk", "spo*")
+            .putArray("sg_dev.backendroles", "dev*")
+            .putArray("sg_ops.and_backendroles", "ops", "on*")
+            .build());
+
+    @Test
+    public void testBackendRoles() {
+        Assert.assertEquals(Sets.newHashSet("sg_admin"), MAPPINGS.map(user("picard", "admin"), null));
+        Assert.assertEquals(Sets.newHashSet("sg_admin", "sg_dev"), MAPPINGS.map(user("picard", "admin", "developer"), null));
+        Assert.assertEquals(Collections.emptySet(), MAPPINGS.map(user("picard", "administrator", "de"), null));
+    }
+
+    @Test
+    public void testUsers() {
+        Assert.assertEquals(Sets.newHashSet("sg_nagilum"), MAPPINGS.map(user("nagilum"), null));
+        Assert.assertEquals(Sets.newHashSet("sg_starfleet"), MAPPINGS.map(user("kirk"), null));
+        Assert.assertEquals(Sets.newHashSet("sg_starfleet", "sg_admin"), MAPPINGS.map(user("spock", "admin"), null));
+        Assert.assertEquals(Collections.emptySet(), MAPPINGS.map(user("nagilum2"), null));
+    }
+
+    @Test
+    public void testAndBackendRoles() {
+        Assert.assertEquals(Sets.newHashSet("sg_ops"), MAPPINGS.map(user("picard", "ops", "oncall"), null));
+        Assert.assertEquals(Collections.emptySet(), MAPPINGS.map(user("picard", "ops"), null));
+        Assert.assertEquals(Collections.emptySet(), MAPPINGS.map(user("picard", "oncall"), null));
+    }
+
+    @Test
+    public void testCached() {
+        final Set<String> first = MAPPINGS.map(user("spock", "admin"), null);
+        Assert.assertSame(first, MAPPINGS.map(user("spock", "admin"), null));
+        Assert.assertNotSame(first, MAPPINGS.map(user("spock", "admin", "ops"), null));
+    }
+
+    @Test
+    public void testHostAddresses() throws Exception {
+        final SgRoleMappings mappings = SgRoleMappings.compile(Settings.settingsBuilder()
+                .putArray("sg_internal.hosts", "10.0.*")
+                .putArray("sg_local.hosts", "127.0.0.1", "::1")
+                .build());
+
+        Assert.assertEquals(Sets.newHashSet("sg_internal"), mappings.map(user("nagilum"), address("node1.example.com", 10, 0, 0, 1)));
+        Assert.assertEquals(Sets.newHashSet("sg_local"), mappings.map(user("nagilum"), address("localhost", 127, 0, 0, 1)));
+        Assert.assertEquals(Collections.emptySet(), mappings.map(user("nagilum"), address("node1.example.com", 192, 168, 0, 1)));
+        Assert.assertEquals(Collections.emptySet(), mappings.map(user("nagilum"), null));
+        //ip address patterns are not matched against host names
+        Assert.assertEquals(Collections.emptySet(), mappings.map(user("nagilum"), address("10.0.example.com", 192, 168, 0, 1)));
+    }
+
+    @Test
+    public void testHostNames() throws Exception {
+        final SgRoleMappings mappings = SgRoleMappings.compile(Settings.settingsBuilder()
+                .putArray("sg_example.hosts", "*.example.com")
+                .build());
+
+        Assert.assertEquals(Sets.newHashSet("sg_example"), mappings.map(user("nagilum"), address("node1.example.com", 10, 0, 0, 1)));
+        //same address with another host name, e.g. after a dns change, is not served from the cache
+        Assert.assertEquals(Collections.emptySet(), mappings.map(user("nagilum"), address("node1.example.org", 10, 0, 0, 1)));
+        Assert.assertEquals(Sets.newHashSet("sg_example"), mappings.map(user("nagilum"), address("node2.example.com", 10, 0, 0, 1)));
+    }
+
+    private static User user(final String name, final String... backendRoles) {
+        return User.builder(name).roles(Arrays.asList(backendRoles)).build();
+    }
+
+    /**
+     * Address with a fixed host name, so no dns lookup is done
+     */
+    private static TransportAddress address(final String host, final int... ip) throws UnknownHostException {
+        final byte[] address = new byte[ip.length];
+        for (int i = 0; i < ip.length; i++) {
+            address[i] = (byte) ip[i];
+        }
+        return new InetSocketTransportAddress(InetAddress.getByAddress(host, address), 9300);
+    }
+}